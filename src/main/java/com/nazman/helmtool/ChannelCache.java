@@ -0,0 +1,80 @@
+package com.nazman.helmtool;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory cache of facts about a node, scoped to the remoting channel the facts were observed on. A reconnecting
+ * agent gets a new channel, so its entries are dropped automatically; entries of closed channels are garbage
+ * collected with the channel.
+ *
+ * @param <V> the cached value type
+ */
+final class ChannelCache<V> {
+
+    /** All caches, so a reconnect can invalidate every one of them. */
+    private static final Set<ChannelCache<?>> ALL = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private final Map<VirtualChannel, ConcurrentMap<String, V>> entries = new WeakHashMap<>();
+
+    ChannelCache() {
+        synchronized (ALL) {
+            ALL.add(this);
+        }
+    }
+
+    V get(VirtualChannel channel, String key) {
+        ConcurrentMap<String, V> values;
+        synchronized (entries) {
+            values = entries.get(channel);
+        }
+        return values != null ? values.get(key) : null;
+    }
+
+    void put(VirtualChannel channel, String key, V value) {
+        ConcurrentMap<String, V> values;
+        synchronized (entries) {
+            values = entries.computeIfAbsent(channel, c -> new ConcurrentHashMap<>());
+        }
+        values.put(key, value);
+    }
+
+    /** Drops everything cached for the channel. */
+    void invalidate(VirtualChannel channel) {
+        synchronized (entries) {
+            entries.remove(channel);
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /** Drops entries of a computer's current channel when it comes (back) online. */
+    @Extension
+    public static final class InvalidateOnConnect extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            VirtualChannel channel = c.getChannel();
+            if (channel == null) {
+                return;
+            }
+            synchronized (ALL) {
+                for (ChannelCache<?> cache : ALL) {
+                    cache.invalidate(channel);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.nazman.helmtool;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.LogTaskListener;
+import hudson.util.NamingThreadFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Installs the configured Helm installations on agents when they come online, so the first build on a fresh agent
+ * finds the binary in place instead of paying for the download. Enabled in the global configuration, optionally
+ * restricted by a label expression. At most {@code prewarmConcurrency} agents are pre-warmed at a time and at most
+ * {@code prewarmPerMinute} start per minute; agents beyond that wait in a queue.
+ */
+@Extension
+public class HelmAgentPrewarmer extends ComputerListener {
+
+    private static final Logger LOGGER = Logger.getLogger(HelmAgentPrewarmer.class.getName());
+
+    static final int DEFAULT_CONCURRENCY = 2;
+    static final int DEFAULT_PER_MINUTE = 10;
+    private static final int MAX_QUEUED = 1000;
+
+    private final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            DEFAULT_CONCURRENCY,
+            DEFAULT_CONCURRENCY,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(MAX_QUEUED),
+            new NamingThreadFactory(new DaemonThreadFactory(), "HelmAgentPrewarmer"));
+
+    /** Agents queued or being pre-warmed, so an agent reconnecting quickly is not queued twice. */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    /** Earliest time the next agent may start, for the per-minute limit. */
+    private long nextStart;
+
+    public HelmAgentPrewarmer() {
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        HelmTool.DescriptorImpl config = HelmTool.DescriptorImpl.get();
+        if (!config.isPrewarmAgents() || config.getInstallations().length == 0) {
+            return;
+        }
+        Node node = c.getNode();
+        if (node == null || !matches(config.getPrewarmLabel(), node)) {
+            return;
+        }
+        String nodeName = node.getNodeName();
+        if (!pending.add(nodeName)) {
+            return;
+        }
+        resize(config.getPrewarmConcurrency());
+        long interval = TimeUnit.MINUTES.toMillis(1) / config.getPrewarmPerMinute();
+        try {
+            pool.execute(() -> {
+                try {
+                    prewarm(c, interval);
+                } finally {
+                    pending.remove(nodeName);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(nodeName);
+            LOGGER.log(Level.FINE, "Pre-warm queue full, skipping {0}", nodeName);
+        }
+    }
+
+    private static boolean matches(String labelExpression, Node node) {
+        if (labelExpression == null) {
+            return true;
+        }
+        try {
+            return Label.parseExpression(labelExpression).matches(node);
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Invalid Helm pre-warm label expression: " + labelExpression, e);
+            return false;
+        }
+    }
+
+    private synchronized void resize(int concurrency) {
+        if (concurrency > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(concurrency);
+            pool.setCorePoolSize(concurrency);
+        } else if (concurrency < pool.getMaximumPoolSize()) {
+            pool.setCorePoolSize(concurrency);
+            pool.setMaximumPoolSize(concurrency);
+        }
+    }
+
+    /** Reserves a start slot and returns how long to wait for it. */
+    private synchronized long reserveStart(long interval) {
+        long now = System.currentTimeMillis();
+        long start = Math.max(now, nextStart);
+        nextStart = start + interval;
+        return start - now;
+    }
+
+    private void prewarm(Computer c, long interval) {
+        try {
+            Thread.sleep(reserveStart(interval));
+            Node node = c.getNode();
+            if (node == null || !c.isOnline()) {
+                return;
+            }
+            TaskListener log = new LogTaskListener(LOGGER, Level.FINE);
+            for (HelmToolInstallation installation : HelmTool.DescriptorImpl.get().getInstallations()) {
+                try (HelmTimings.Phase ignored =
+                        HelmTimings.phase("prewarm", installation.getName(), node.getNodeName())) {
+                    HelmToolInstallation translated = installation.forNode(node, log);
+                    translated.getHelmBinaryPath(node, log);
+                    LOGGER.log(Level.FINE, "Pre-warmed Helm {0} on {1}", new Object[] {
+                        installation.getName(), c.getName()
+                    });
+                } catch (Exception e) {
+                    // Not fatal: the first build on the agent installs it as before
+                    LOGGER.log(
+                            Level.WARNING,
+                            "Failed to pre-warm Helm " + installation.getName() + " on " + c.getName(),
+                            e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.nazman.helmtool;
+
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Controller-side, content-addressed cache of Helm archives.
+ *
+ * <p>Archives are stored once per SHA-256 under {@code $JENKINS_HOME/caches/helm-tool/archives/blobs} and looked up
+ * by download URL, so every node installing the same URL is served from the controller instead of the upstream
+ * server. The cache is bounded by {@link #MAX_SIZE_BYTES}; least recently used archives are evicted first.
+ */
+final class HelmArchiveCache {
+
+    private static final Logger LOGGER = Logger.getLogger(HelmArchiveCache.class.getName());
+
+    /** Maximum total size of cached archives (bytes). */
+    static final long MAX_SIZE_BYTES =
+            SystemProperties.getLong(HelmArchiveCache.class.getName() + ".maxSizeBytes", 512L * 1024 * 1024);
+
+    /** Connect timeout for Helm download (milliseconds). */
+    private static final int DOWNLOAD_CONNECT_TIMEOUT_MS = 30_000;
+    /** Number of parallel range requests per archive. */
+    private static final int DOWNLOAD_PARALLELISM =
+            SystemProperties.getInteger(HelmArchiveCache.class.getName() + ".downloadParallelism", 4);
+    /** Archives are split into segments of at least this size (bytes). */
+    private static final long DOWNLOAD_MIN_SEGMENT_BYTES =
+            SystemProperties.getLong(HelmArchiveCache.class.getName() + ".downloadMinSegmentBytes", 4L * 1024 * 1024);
+    /** A download that blocks, or stays below the throughput floor, for this long is retried (milliseconds). */
+    private static final int DOWNLOAD_STALL_TIMEOUT_MS =
+            SystemProperties.getInteger(HelmArchiveCache.class.getName() + ".downloadStallTimeoutMs", 30_000);
+    /** Throughput floor enforced over each stall window (bytes per second). */
+    private static final long DOWNLOAD_MIN_BYTES_PER_SECOND =
+            SystemProperties.getLong(HelmArchiveCache.class.getName() + ".downloadMinBytesPerSecond", 16L * 1024);
+    /** Attempts per segment; each attempt resumes from the bytes already stored. */
+    private static final int DOWNLOAD_MAX_ATTEMPTS = 3;
+
+    private static volatile HelmArchiveCache instance;
+
+    private final File root;
+    private final ConcurrentMap<String, Object> urlLocks = new ConcurrentHashMap<>();
+
+    HelmArchiveCache(File root) {
+        this.root = root;
+    }
+
+    static HelmArchiveCache get() {
+        HelmArchiveCache cache = instance;
+        if (cache == null) {
+            synchronized (HelmArchiveCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    cache = new HelmArchiveCache(new File(Jenkins.get().getRootDir(), "caches/helm-tool/archives"));
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the cached archive for the URL, downloading it on a miss.
+     *
+     * @param downloadUrl    the upstream archive URL
+     * @param expectedSha256 optional SHA-256 the archive must match; a cached entry with another digest is refetched
+     * @param log            the task listener for logging
+     * @return the verified archive file on the controller
+     */
+    File fetch(String downloadUrl, String expectedSha256, TaskListener log) throws IOException, InterruptedException {
+        String urlKey = HelmDigests.sha256(downloadUrl);
+        synchronized (urlLocks.computeIfAbsent(urlKey, k -> new Object())) {
+            File cached = lookup(urlKey, expectedSha256);
+            if (cached != null) {
+                log.getLogger().println("Using cached Helm archive for " + downloadUrl);
+                return cached;
+            }
+            log.getLogger().println("Downloading Helm from " + downloadUrl + " ...");
+            File blob = download(downloadUrl, urlKey, expectedSha256);
+            // Downloads run on the controller
+            HelmTimings.bytes("download", "", blob.length());
+            LruEviction.evict(new File(root, "blobs"), MAX_SIZE_BYTES, blob);
+            return blob;
+        }
+    }
+
+    private File lookup(String urlKey, String expectedSha256) throws IOException {
+        File pointer = new File(new File(root, "urls"), urlKey);
+        if (!pointer.isFile()) {
+            return null;
+        }
+        String digest = Files.readString(pointer.toPath(), StandardCharsets.UTF_8).trim();
+        if (expectedSha256 != null && !expectedSha256.equals(digest)) {
+            return null;
+        }
+        File blob = new File(new File(root, "blobs"), digest);
+        if (!blob.isFile()) {
+            return null;
+        }
+        // Mark as recently used for LRU eviction
+        if (!blob.setLastModified(System.currentTimeMillis())) {
+            LOGGER.log(Level.FINE, "Could not touch {0}", blob);
+        }
+        return blob;
+    }
+
+    private File download(String downloadUrl, String urlKey, String expectedSha256)
+            throws IOException, InterruptedException {
+        File tmpDir = new File(root, ".download");
+        File blobs = new File(root, "blobs");
+        File urls = new File(root, "urls");
+        Files.createDirectories(tmpDir.toPath());
+        Files.createDirectories(blobs.toPath());
+        Files.createDirectories(urls.toPath());
+
+        File tmp = new File(tmpDir, urlKey + ".tmp");
+        HelmDownloader downloader = new HelmDownloader(
+                DOWNLOAD_PARALLELISM,
+                DOWNLOAD_MIN_SEGMENT_BYTES,
+                DOWNLOAD_CONNECT_TIMEOUT_MS,
+                DOWNLOAD_STALL_TIMEOUT_MS,
+                DOWNLOAD_MIN_BYTES_PER_SECOND,
+                DOWNLOAD_MAX_ATTEMPTS);
+        String digest;
+        try {
+            // Partial segments stay in .download/ so a failed download resumes on the next attempt
+            digest = downloader.download(downloadUrl, tmpDir, urlKey, tmp);
+        } catch (IOException | InterruptedException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+
+        if (expectedSha256 != null && !expectedSha256.equals(digest)) {
+            Files.deleteIfExists(tmp.toPath());
+            throw new IOException("Checksum mismatch for " + downloadUrl + ": expected sha256 " + expectedSha256
+                    + " but downloaded archive has " + digest);
+        }
+
+        File blob = new File(blobs, digest);
+        Files.move(tmp.toPath(), blob.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        File pointerTmp = new File(urls, urlKey + ".tmp");
+        Files.writeString(pointerTmp.toPath(), digest, StandardCharsets.UTF_8);
+        Files.move(
+                pointerTmp.toPath(),
+                new File(urls, urlKey).toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return blob;
+    }
+}
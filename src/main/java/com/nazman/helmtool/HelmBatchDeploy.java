@@ -0,0 +1,463 @@
+package com.nazman.helmtool;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.AbstractProject;
+import hudson.model.Descriptor;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.Builder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import jenkins.tasks.SimpleBuildStep;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Deploys several releases in one step. Helm is installed, verified and the repositories are set up once, then
+ * {@code helm upgrade --install} runs for each release, up to {@link #getConcurrency()} at a time. A release starts
+ * only after every release it {@linkplain Release#getDependsOn() depends on} has been deployed; releases depending
+ * on a failed release are skipped.
+ */
+public class HelmBatchDeploy extends Builder implements SimpleBuildStep {
+
+    private final String helmInstallation;
+    private List<Release> releases = new ArrayList<>();
+    private List<HelmTool.Repository> repositories = new ArrayList<>();
+    private Integer repositoryCacheTtlMinutes;
+    private int repositoryConcurrency;
+    private int concurrency;
+    private boolean cacheCharts;
+    private HelmTool.LogMode logMode;
+
+    @DataBoundConstructor
+    public HelmBatchDeploy(String helmInstallation) {
+        this.helmInstallation = helmInstallation;
+    }
+
+    public String getHelmInstallation() {
+        return helmInstallation;
+    }
+
+    @DataBoundSetter
+    public void setReleases(List<Release> releases) {
+        this.releases = releases;
+    }
+
+    public List<Release> getReleases() {
+        return releases;
+    }
+
+    @DataBoundSetter
+    public void setRepositories(List<HelmTool.Repository> repositories) {
+        this.repositories = repositories;
+    }
+
+    public List<HelmTool.Repository> getRepositories() {
+        return repositories;
+    }
+
+    /** See {@link HelmTool#setRepositoryCacheTtlMinutes(int)}. */
+    @DataBoundSetter
+    public void setRepositoryCacheTtlMinutes(int repositoryCacheTtlMinutes) {
+        this.repositoryCacheTtlMinutes = Math.max(0, repositoryCacheTtlMinutes);
+    }
+
+    public int getRepositoryCacheTtlMinutes() {
+        return repositoryCacheTtlMinutes != null ? repositoryCacheTtlMinutes : HelmRepositorySetup.DEFAULT_TTL_MINUTES;
+    }
+
+    /** See {@link HelmTool#setRepositoryConcurrency(int)}. */
+    @DataBoundSetter
+    public void setRepositoryConcurrency(int repositoryConcurrency) {
+        this.repositoryConcurrency = repositoryConcurrency;
+    }
+
+    public int getRepositoryConcurrency() {
+        return Math.max(1, repositoryConcurrency);
+    }
+
+    /** How many releases are deployed at the same time. Values below 2 deploy releases one after another. */
+    @DataBoundSetter
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public int getConcurrency() {
+        return Math.max(1, concurrency);
+    }
+
+    /** See {@link HelmTool#setCacheCharts(boolean)}. */
+    @DataBoundSetter
+    public void setCacheCharts(boolean cacheCharts) {
+        this.cacheCharts = cacheCharts;
+    }
+
+    public boolean isCacheCharts() {
+        return cacheCharts;
+    }
+
+    /** In {@link HelmTool.LogMode#SUMMARY} mode each release's output is condensed, and archived if it fails. */
+    @DataBoundSetter
+    public void setLogMode(HelmTool.LogMode logMode) {
+        this.logMode = logMode == HelmTool.LogMode.FULL ? null : logMode;
+    }
+
+    public HelmTool.LogMode getLogMode() {
+        return logMode != null ? logMode : HelmTool.LogMode.FULL;
+    }
+
+    /** One release of the batch. */
+    public static class Release extends AbstractDescribableImpl<Release> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String releaseName;
+        private final String chartPath;
+        private String valuesFile;
+        private List<String> valuesFiles = new ArrayList<>();
+        private List<HelmTool.Value> values = new ArrayList<>();
+        private String additionalArgs;
+        private String dependsOn;
+
+        @DataBoundConstructor
+        public Release(String releaseName, String chartPath) {
+            this.releaseName = releaseName;
+            this.chartPath = chartPath;
+        }
+
+        public String getReleaseName() {
+            return releaseName;
+        }
+
+        public String getChartPath() {
+            return chartPath;
+        }
+
+        public String getValuesFile() {
+            return valuesFile;
+        }
+
+        @DataBoundSetter
+        public void setValuesFile(String valuesFile) {
+            this.valuesFile = valuesFile;
+        }
+
+        /** See {@link HelmTool#setValuesFiles(List)}. */
+        public List<String> getValuesFiles() {
+            return valuesFiles;
+        }
+
+        @DataBoundSetter
+        public void setValuesFiles(List<String> valuesFiles) {
+            this.valuesFiles = valuesFiles;
+        }
+
+        /** See {@link HelmTool#setValues(List)}. */
+        public List<HelmTool.Value> getValues() {
+            return values;
+        }
+
+        @DataBoundSetter
+        public void setValues(List<HelmTool.Value> values) {
+            this.values = values;
+        }
+
+        public String getAdditionalArgs() {
+            return additionalArgs;
+        }
+
+        @DataBoundSetter
+        public void setAdditionalArgs(String additionalArgs) {
+            this.additionalArgs = additionalArgs;
+        }
+
+        /** Names of releases (comma or space separated) that must be deployed before this one. */
+        public String getDependsOn() {
+            return dependsOn;
+        }
+
+        @DataBoundSetter
+        public void setDependsOn(String dependsOn) {
+            this.dependsOn = dependsOn;
+        }
+
+        List<String> dependencies() {
+            List<String> result = new ArrayList<>();
+            if (dependsOn != null) {
+                Collections.addAll(result, Util.tokenize(dependsOn, ", \t\n"));
+            }
+            return result;
+        }
+
+        /** {@link #getValuesFile()} followed by {@link #getValuesFiles()}. */
+        List<String> allValuesFiles() {
+            List<String> files = new ArrayList<>();
+            files.add(valuesFile);
+            if (valuesFiles != null) {
+                files.addAll(valuesFiles);
+            }
+            return files;
+        }
+
+        @Extension
+        public static final class DescriptorImpl extends Descriptor<Release> {
+
+            @Override
+            public String getDisplayName() {
+                return "Release";
+            }
+        }
+    }
+
+    /** Result of deploying one release. */
+    enum Status {
+        DEPLOYED,
+        FAILED,
+        SKIPPED
+    }
+
+    /** @param output the release's output, or null if it was skipped */
+    private record Outcome(String releaseName, Status status, String detail, long millis, HelmOutputCapture output) {}
+
+    @Override
+    public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener)
+            throws InterruptedException, IOException {
+        Map<String, Release> byName = index(releases);
+        listener.getLogger().println("Releases: " + String.join(", ", byName.keySet()));
+
+        HelmPreflight preflight = new HelmPreflight().repositories(repositories);
+        for (Release release : byName.values()) {
+            preflight.chart(release.getChartPath()).valuesFiles(release.allValuesFiles());
+        }
+        preflight.check(workspace);
+
+        HelmSession helm = HelmSession.open(run, workspace, launcher, listener, helmInstallation);
+        helm.logMode = getLogMode();
+        helm.setupRepositories(repositories, getRepositoryCacheTtlMinutes(), getRepositoryConcurrency());
+
+        Map<String, Outcome> outcomes;
+        try {
+            outcomes = deploy(helm, byName, listener);
+        } finally {
+            helm.attachTimings();
+        }
+
+        listener.getLogger().println("Helm batch results:");
+        int failed = 0;
+        for (Outcome outcome : outcomes.values()) {
+            listener.getLogger()
+                    .println(String.format(
+                            Locale.ROOT,
+                            "  %-30s %-8s %6.1fs %s",
+                            outcome.releaseName(),
+                            outcome.status(),
+                            outcome.millis() / 1000.0,
+                            outcome.detail()));
+            if (outcome.status() != Status.DEPLOYED) {
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            throw new IOException(failed + " of " + outcomes.size() + " Helm releases were not deployed");
+        }
+    }
+
+    /** Releases by name, in declaration order; rejects duplicates, unknown dependencies and cycles. */
+    static Map<String, Release> index(List<Release> releases) throws IOException {
+        if (releases == null || releases.isEmpty()) {
+            throw new IOException("No releases to deploy");
+        }
+        Map<String, Release> byName = new LinkedHashMap<>();
+        for (Release release : releases) {
+            String name = Util.fixEmptyAndTrim(release.getReleaseName());
+            if (name == null) {
+                throw new IOException("Release name must not be empty");
+            }
+            if (byName.put(name, release) != null) {
+                throw new IOException("Release " + name + " is listed more than once");
+            }
+        }
+        for (Map.Entry<String, Release> e : byName.entrySet()) {
+            for (String dependency : e.getValue().dependencies()) {
+                if (!byName.containsKey(dependency)) {
+                    throw new IOException("Release " + e.getKey() + " depends on unknown release " + dependency);
+                }
+            }
+        }
+        // Kahn's algorithm: anything left over is part of a cycle
+        Set<String> ordered = new HashSet<>();
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (Map.Entry<String, Release> e : byName.entrySet()) {
+                if (!ordered.contains(e.getKey()) && ordered.containsAll(e.getValue().dependencies())) {
+                    ordered.add(e.getKey());
+                    progress = true;
+                }
+            }
+        }
+        if (ordered.size() < byName.size()) {
+            List<String> cyclic = new ArrayList<>(byName.keySet());
+            cyclic.removeAll(ordered);
+            throw new IOException("Release dependencies form a cycle: " + String.join(", ", cyclic));
+        }
+        return byName;
+    }
+
+    /**
+     * Deploys the releases, starting each as soon as its dependencies are deployed and a slot is free. Output of each
+     * release is spooled to a temporary file and written to the console when it finishes, so concurrent releases do
+     * not interleave and long output is not held in memory.
+     */
+    private Map<String, Outcome> deploy(HelmSession helm, Map<String, Release> byName, TaskListener listener)
+            throws IOException, InterruptedException {
+        Map<String, Outcome> outcomes = new LinkedHashMap<>();
+        Set<String> started = new HashSet<>();
+        List<HelmOutputCapture> captures = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(getConcurrency(), byName.size()),
+                new NamingThreadFactory(new DaemonThreadFactory(), "HelmBatchDeploy"));
+        CompletionService<Outcome> completion = new ExecutorCompletionService<>(pool);
+        try {
+            int running = 0;
+            while (true) {
+                for (Map.Entry<String, Release> e : byName.entrySet()) {
+                    String name = e.getKey();
+                    if (started.contains(name)) {
+                        continue;
+                    }
+                    String blocker = null;
+                    boolean ready = true;
+                    for (String dependency : e.getValue().dependencies()) {
+                        Outcome dep = outcomes.get(dependency);
+                        if (dep == null) {
+                            ready = false;
+                        } else if (dep.status() != Status.DEPLOYED) {
+                            blocker = dependency;
+                        }
+                    }
+                    if (blocker != null) {
+                        // Skipping may unblock the decision for releases that depend on this one on the next pass
+                        started.add(name);
+                        String detail = "(" + blocker + " was not deployed)";
+                        outcomes.put(name, new Outcome(name, Status.SKIPPED, detail, 0, null));
+                    } else if (ready) {
+                        started.add(name);
+                        Release release = e.getValue();
+                        HelmOutputCapture output = new HelmOutputCapture("batch-" + name);
+                        captures.add(output);
+                        completion.submit(() -> deployOne(helm, name, release, output));
+                        running++;
+                    }
+                }
+                if (running == 0) {
+                    if (started.size() < byName.size()) {
+                        continue; // releases were skipped in this pass; re-evaluate their dependents
+                    }
+                    break;
+                }
+                Outcome done;
+                try {
+                    done = completion.take().get();
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                }
+                running--;
+                listener.getLogger().println("--- " + done.releaseName() + " ---");
+                done.output().copyTo(listener.getLogger());
+                done.output().discard();
+                outcomes.put(done.releaseName(), done);
+            }
+        } finally {
+            // Interrupts (and thereby kills) anything still running if the build was aborted
+            pool.shutdownNow();
+            for (HelmOutputCapture output : captures) {
+                output.discard();
+            }
+        }
+
+        // Report in declaration order
+        Map<String, Outcome> ordered = new LinkedHashMap<>();
+        for (String name : byName.keySet()) {
+            ordered.put(name, outcomes.get(name));
+        }
+        return ordered;
+    }
+
+    private Outcome deployOne(HelmSession helm, String name, Release release, HelmOutputCapture output)
+            throws InterruptedException {
+        TaskListener log = new StreamTaskListener(output, StandardCharsets.UTF_8);
+        long start = System.nanoTime();
+        Status status;
+        String detail;
+        try {
+            String chart = release.getChartPath();
+            if (cacheCharts) {
+                chart = helm.resolveCachedChart(chart, release.getAdditionalArgs(), repositories, log);
+            }
+            Map<String, String> plain = new TreeMap<>();
+            Map<String, String> secret = new TreeMap<>();
+            HelmTool.resolveValues(release.getValues(), helm.run, plain, secret);
+            HelmCommand upgrade = helm.upgradeCommand(name, chart, release.allValuesFiles())
+                    .set(plain)
+                    .setSecret(secret)
+                    .additionalArgs(release.getAdditionalArgs());
+            int exitCode;
+            try (HelmTimings.Phase ignored = helm.timings.phase("upgrade", name)) {
+                exitCode = helm.launchCaptured(upgrade, "upgrade-" + name, log.getLogger());
+            }
+            status = exitCode == 0 ? Status.DEPLOYED : Status.FAILED;
+            detail = exitCode == 0 ? "" : "(exit code " + exitCode + ")";
+        } catch (IOException e) {
+            log.getLogger().println(e);
+            status = Status.FAILED;
+            detail = "(" + e.getMessage() + ")";
+        }
+        log.getLogger().flush();
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new Outcome(name, status, detail, millis, output);
+    }
+
+    @Symbol("helmBatch")
+    @Extension
+    public static final class DescriptorImpl extends hudson.tasks.BuildStepDescriptor<Builder> {
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> aClass) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Deploy several Helm releases";
+        }
+
+        public ListBoxModel doFillHelmInstallationItems() {
+            return HelmTool.DescriptorImpl.get().doFillHelmInstallationItems();
+        }
+    }
+}
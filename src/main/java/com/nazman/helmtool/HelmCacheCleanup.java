@@ -0,0 +1,304 @@
+package com.nazman.helmtool;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Reclaims disk space the plugin leaves behind. Once a day (by default) every online node is swept, a few at a time:
+ *
+ * <ul>
+ *   <li>installations under {@code <node root>/tools/helm} whose tool is no longer configured are removed;
+ *   <li>{@code .download}/{@code .extract} directories and {@code .helm-write-probe-*}, {@code .helm-*.tmp} and
+ *       {@code .helm-install.properties.tmp} files left by interrupted installations are removed from installation
+ *       directories;
+ *   <li>the node's chart and dependency caches are trimmed to their size budget, and entries unused for longer than
+ *       the age budget are dropped.
+ * </ul>
+ *
+ * Helm's repository cache belongs to the user, not the plugin. Only with {@link #EXPIRE_INDEXES} set are indexes
+ * that no build refreshed within the age budget dropped from it, and only those of repositories the plugin registered
+ * (see {@link HelmRepositorySetup#STATE_FILE}) in the node's default cache.
+ *
+ * The controller's chart and dependency caches get the same age and size treatment. Reclaimed bytes are written to
+ * the task log and counted in the {@code gc-reclaimed} transfer metric.
+ */
+@Extension
+public class HelmCacheCleanup extends AsyncPeriodicWork {
+
+    static final boolean ENABLED = SystemProperties.getBoolean(HelmCacheCleanup.class.getName() + ".enabled", true);
+
+    static final long PERIOD_HOURS = SystemProperties.getLong(HelmCacheCleanup.class.getName() + ".periodHours", 24L);
+
+    /** Cache entries not used for this long are deleted. */
+    static final long MAX_AGE_DAYS = SystemProperties.getLong(HelmCacheCleanup.class.getName() + ".maxAgeDays", 30L);
+
+    /** Leftovers of interrupted installations younger than this may belong to a running one and are kept. */
+    static final long LEFTOVER_AGE_HOURS =
+            SystemProperties.getLong(HelmCacheCleanup.class.getName() + ".leftoverAgeHours", 24L);
+
+    /** How many nodes are swept at the same time. */
+    static final int CONCURRENCY = SystemProperties.getInteger(HelmCacheCleanup.class.getName() + ".concurrency", 4);
+
+    /** Whether repository indexes the plugin registered in Helm's default repository cache are expired. */
+    static final boolean EXPIRE_INDEXES =
+            SystemProperties.getBoolean(HelmCacheCleanup.class.getName() + ".expireRepositoryIndexes", false);
+
+    static final String TOOLS_DIR = "tools/helm";
+
+    public HelmCacheCleanup() {
+        super("Helm cache cleanup");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.HOURS.toMillis(Math.max(1, PERIOD_HOURS));
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        if (!ENABLED) {
+            return;
+        }
+        Jenkins jenkins = Jenkins.get();
+        long maxAgeMillis = TimeUnit.DAYS.toMillis(MAX_AGE_DAYS);
+        long leftoverAgeMillis = TimeUnit.HOURS.toMillis(LEFTOVER_AGE_HOURS);
+
+        long controller = 0;
+        File root = new File(jenkins.getRootDir(), "caches/helm-tool");
+        controller += Sweep.trim(new File(root, "charts/blobs"), HelmChartCache.MAX_SIZE_BYTES, maxAgeMillis);
+        controller += Sweep.trim(new File(root, "chart-deps"), HelmDependencyCache.MAX_SIZE_BYTES, maxAgeMillis);
+        report(listener, "controller caches", "", controller);
+
+        Set<String> toolNames = new HashSet<>();
+        List<String> homes = new ArrayList<>();
+        for (HelmToolInstallation installation : HelmTool.DescriptorImpl.get().getInstallations()) {
+            toolNames.add(installation.getName().replaceAll("[^a-zA-Z0-9._-]", "_"));
+            String home = Util.fixEmptyAndTrim(installation.getHome());
+            if (home != null) {
+                homes.add(home);
+            }
+        }
+        Sweep sweep = new Sweep(
+                toolNames,
+                homes,
+                maxAgeMillis,
+                leftoverAgeMillis,
+                HelmChartCache.NODE_MAX_SIZE_BYTES,
+                HelmDependencyCache.NODE_MAX_SIZE_BYTES,
+                EXPIRE_INDEXES);
+
+        Map<Computer, Future<Long>> results = new LinkedHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, CONCURRENCY), new NamingThreadFactory(new DaemonThreadFactory(), "HelmCacheCleanup"));
+        try {
+            for (Computer computer : jenkins.getComputers()) {
+                Node node = computer.getNode();
+                FilePath rootPath = node != null && computer.isOnline() ? node.getRootPath() : null;
+                if (rootPath != null) {
+                    results.put(computer, pool.submit(() -> rootPath.act(sweep)));
+                }
+            }
+            long total = controller;
+            for (Map.Entry<Computer, Future<Long>> e : results.entrySet()) {
+                Computer computer = e.getKey();
+                try {
+                    long reclaimed = e.getValue().get();
+                    total += reclaimed;
+                    report(listener, computer.getDisplayName(), computer.getName(), reclaimed);
+                } catch (ExecutionException ex) {
+                    Functions.printStackTrace(
+                            ex.getCause(), listener.error("Failed to clean up " + computer.getDisplayName()));
+                }
+            }
+            listener.getLogger().println("Reclaimed " + Functions.humanReadableByteSize(total) + " in total");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @param where    shown in the task log
+     * @param nodeName the node for the metrics; empty for the controller
+     */
+    private static void report(TaskListener listener, String where, String nodeName, long reclaimed) {
+        listener.getLogger().println("Reclaimed " + Functions.humanReadableByteSize(reclaimed) + " on " + where);
+        if (reclaimed > 0) {
+            HelmMetrics.get().addBytes("gc-reclaimed", nodeName, reclaimed);
+        }
+    }
+
+    /** Sweeps one node; runs on the node with its root directory. Returns the bytes reclaimed. */
+    static final class Sweep extends MasterToSlaveFileCallable<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashSet<String> toolNames;
+        private final ArrayList<String> homes;
+        private final long maxAgeMillis;
+        private final long leftoverAgeMillis;
+        private final long chartsMaxBytes;
+        private final long dependenciesMaxBytes;
+        private final boolean expireIndexes;
+
+        Sweep(
+                Set<String> toolNames,
+                List<String> homes,
+                long maxAgeMillis,
+                long leftoverAgeMillis,
+                long chartsMaxBytes,
+                long dependenciesMaxBytes,
+                boolean expireIndexes) {
+            this.toolNames = new HashSet<>(toolNames);
+            this.homes = new ArrayList<>(homes);
+            this.maxAgeMillis = maxAgeMillis;
+            this.leftoverAgeMillis = leftoverAgeMillis;
+            this.chartsMaxBytes = chartsMaxBytes;
+            this.dependenciesMaxBytes = dependenciesMaxBytes;
+            this.expireIndexes = expireIndexes;
+        }
+
+        @Override
+        public Long invoke(File root, VirtualChannel channel) throws IOException {
+            long cutoff = System.currentTimeMillis() - leftoverAgeMillis;
+            long reclaimed = 0;
+
+            File[] installations = new File(root, TOOLS_DIR).listFiles(File::isDirectory);
+            if (installations != null) {
+                for (File dir : installations) {
+                    if (!toolNames.contains(dir.getName()) && dir.lastModified() < cutoff) {
+                        reclaimed += delete(dir);
+                    } else {
+                        reclaimed += leftovers(dir, cutoff);
+                    }
+                }
+            }
+            for (String home : homes) {
+                File dir = new File(home).isAbsolute() ? new File(home) : new File(root, home);
+                if (dir.isDirectory()) {
+                    reclaimed += leftovers(dir, cutoff);
+                }
+            }
+
+            reclaimed += cache(new File(root, HelmChartCache.NODE_CACHE_DIR), chartsMaxBytes, cutoff);
+            reclaimed += cache(new File(root, HelmDependencyCache.NODE_CACHE_DIR), dependenciesMaxBytes, cutoff);
+
+            if (expireIndexes) {
+                reclaimed += indexes(new HelmRepositorySetup.HelmPaths(Map.of()).repositoryCache, maxAgeMillis);
+            }
+            return reclaimed;
+        }
+
+        /** Stale index files of the repositories listed in the plugin's state file; other files are left alone. */
+        private static long indexes(File repositoryCache, long maxAgeMillis) throws IOException {
+            Properties registered = HelmRepositorySetup.load(new File(repositoryCache, HelmRepositorySetup.STATE_FILE));
+            if (registered.isEmpty()) {
+                return 0;
+            }
+            Set<String> names = new HashSet<>();
+            for (String name : registered.stringPropertyNames()) {
+                names.add(name + "-index.yaml");
+                names.add(name + "-charts.txt");
+            }
+            return expire(repositoryCache, maxAgeMillis, f -> names.contains(f.getName()));
+        }
+
+        /** Temporary entries of an interrupted copy or pull, then the age and size budget. */
+        private long cache(File dir, long maxBytes, long leftoverCutoff) throws IOException {
+            long reclaimed = 0;
+            File[] temporary = dir.listFiles(f -> f.getName().startsWith("."));
+            if (temporary != null) {
+                for (File f : temporary) {
+                    if (f.lastModified() < leftoverCutoff) {
+                        reclaimed += delete(f);
+                    }
+                }
+            }
+            return reclaimed + trim(dir, maxBytes, maxAgeMillis);
+        }
+
+        /**
+         * Work directories, write probes and half-written binaries and stamps an interrupted installation left in an
+         * installation directory.
+         */
+        private static long leftovers(File dir, long cutoff) throws IOException {
+            long reclaimed = 0;
+            File[] entries = dir.listFiles(f -> f.getName().equals(".download")
+                    || f.getName().equals(".extract")
+                    || f.getName().startsWith(".helm-write-probe-")
+                    || f.getName().equals(InstallationStamp.FILE_NAME + ".tmp")
+                    || (f.getName().startsWith(".helm-") && f.getName().endsWith(".tmp")));
+            if (entries != null) {
+                for (File f : entries) {
+                    if (f.lastModified() < cutoff) {
+                        reclaimed += delete(f);
+                    }
+                }
+            }
+            return reclaimed;
+        }
+
+        /** Drops files unused for longer than {@code maxAgeMillis}, then bounds the directory's total size. */
+        static long trim(File dir, long maxBytes, long maxAgeMillis) {
+            long reclaimed = expire(dir, maxAgeMillis, f -> true);
+            return reclaimed + LruEviction.evict(dir, maxBytes, null);
+        }
+
+        private static long expire(File dir, long maxAgeMillis, Predicate<File> filter) {
+            File[] files = dir.listFiles(f -> f.isFile() && filter.test(f));
+            if (files == null) {
+                return 0;
+            }
+            long cutoff = System.currentTimeMillis() - maxAgeMillis;
+            long reclaimed = 0;
+            for (File f : files) {
+                long size = f.length();
+                if (f.lastModified() < cutoff && f.delete()) {
+                    reclaimed += size;
+                }
+            }
+            return reclaimed;
+        }
+
+        /** Deletes a file or directory tree; returns the bytes freed. */
+        private static long delete(File f) throws IOException {
+            long size;
+            try (Stream<Path> paths = Files.walk(f.toPath())) {
+                size = paths.map(Path::toFile).filter(File::isFile).mapToLong(File::length).sum();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Util.deleteRecursive(f);
+            return size;
+        }
+    }
+}
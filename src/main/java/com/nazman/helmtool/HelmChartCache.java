@@ -0,0 +1,423 @@
+package com.nazman.helmtool;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+
+/**
+ * Content-addressed cache of remote chart packages ({@code repo/chart} or {@code oci://} references).
+ *
+ * <p>A chart is pulled once with {@code helm pull}, stored by SHA-256 on the node under
+ * {@code <node root>/caches/helm-tool/charts} and on the controller under
+ * {@code $JENKINS_HOME/caches/helm-tool/charts}, where it is keyed by repository URL, chart and version (the full
+ * reference and version for OCI). Other builds and agents then deploy the cached {@code .tgz} instead of fetching the
+ * chart again. Only charts pinned with {@code --version} are cached, since an unpinned reference may resolve to a
+ * newer chart on every run.
+ */
+final class HelmChartCache {
+
+    /** Maximum total size of charts cached on the controller (bytes). */
+    static final long MAX_SIZE_BYTES =
+            SystemProperties.getLong(HelmChartCache.class.getName() + ".maxSizeBytes", 1024L * 1024 * 1024);
+
+    /** Maximum total size of charts cached on each node (bytes). */
+    static final long NODE_MAX_SIZE_BYTES =
+            SystemProperties.getLong(HelmChartCache.class.getName() + ".nodeMaxSizeBytes", 1024L * 1024 * 1024);
+
+    /** Directory of the per-node cache, relative to the node root. */
+    static final String NODE_CACHE_DIR = "caches/helm-tool/charts";
+
+    private static volatile HelmChartCache instance;
+
+    private final File root;
+    private final KeyedLock locks = new KeyedLock();
+
+    HelmChartCache(File root) {
+        this.root = root;
+    }
+
+    static HelmChartCache get() {
+        HelmChartCache cache = instance;
+        if (cache == null) {
+            synchronized (HelmChartCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    cache = new HelmChartCache(new File(Jenkins.get().getRootDir(), "caches/helm-tool/charts"));
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * True if the chart path names a chart in a repository or registry rather than a local directory or archive.
+     *
+     * @param repositoryNames names of the repositories configured on the step
+     */
+    static boolean isRemote(String chartPath, Collection<String> repositoryNames) {
+        if (chartPath == null) {
+            return false;
+        }
+        if (chartPath.startsWith("oci://")) {
+            return true;
+        }
+        int slash = chartPath.indexOf('/');
+        if (slash <= 0
+                || slash != chartPath.lastIndexOf('/')
+                || chartPath.startsWith(".")
+                || chartPath.endsWith(".tgz")) {
+            return false;
+        }
+        return repositoryNames.contains(chartPath.substring(0, slash));
+    }
+
+    /** The value of {@code --version} in the additional arguments, or null if the chart is not pinned. */
+    static String versionOf(String additionalArgs) {
+        if (additionalArgs == null) {
+            return null;
+        }
+        String[] args = Util.tokenize(additionalArgs);
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--version") && i + 1 < args.length) {
+                return args[i + 1];
+            }
+            if (args[i].startsWith("--version=")) {
+                return args[i].substring("--version=".length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A pinned remote chart: the reference as written in the step, and for a repository chart the repository it
+     * resolves to in this step, so charts of equally named repositories in different jobs never share a cache entry.
+     *
+     * @param reference      {@code repo/chart} or a full {@code oci://} reference
+     * @param repositoryName the repository alias, or null for OCI
+     * @param repositoryUrl  the URL the alias is registered with in this step, or null for OCI
+     */
+    record ChartRef(String reference, String repositoryName, String repositoryUrl, String version) {
+
+        String chartName() {
+            return reference.substring(reference.lastIndexOf('/') + 1);
+        }
+
+        /** Cache key: repository URL, chart name and version; the full reference and version for OCI. */
+        String key() {
+            if (repositoryUrl == null) {
+                return HelmDigests.sha256(reference + "@" + version);
+            }
+            String url = repositoryUrl.endsWith("/")
+                    ? repositoryUrl.substring(0, repositoryUrl.length() - 1)
+                    : repositoryUrl;
+            return HelmDigests.sha256(url + "/" + chartName() + "@" + version);
+        }
+
+        @Override
+        public String toString() {
+            return reference + " " + version;
+        }
+    }
+
+    /**
+     * Makes the chart available on the node from the cache, pulling it on a miss. For a repository chart whose index
+     * is in Helm's repository cache on the node, the archive must match the digest listed there.
+     *
+     * @param helmEnv build variables that move Helm's directories, see {@link HelmRepositorySetup#helmEnv}
+     * @return the path of the chart archive on the node, or null if it could not be pulled (Helm then fetches the
+     *     chart itself as before)
+     */
+    String resolve(
+            ChartRef chart,
+            Launcher launcher,
+            Node node,
+            String helmPath,
+            FilePath workspace,
+            Map<String, String> helmEnv,
+            TaskListener listener)
+            throws IOException, InterruptedException {
+        FilePath rootPath = node.getRootPath();
+        if (rootPath == null) {
+            return null;
+        }
+        FilePath nodeCache = rootPath.child(NODE_CACHE_DIR);
+        String key = chart.key();
+        try (KeyedLock.Held ignored = locks.acquire(key)) {
+            String indexed = null;
+            if (chart.repositoryName() != null) {
+                indexed = rootPath.act(
+                        new IndexDigest(helmEnv, chart.repositoryName(), chart.chartName(), chart.version()));
+            }
+            File pointer = new File(new File(root, "refs"), key);
+            if (pointer.isFile()) {
+                String digest = Files.readString(pointer.toPath(), StandardCharsets.UTF_8).trim();
+                if (indexed != null && !indexed.equals(digest)) {
+                    listener.getLogger()
+                            .println("Cached chart " + chart + " does not match the repository index; pulling again");
+                } else {
+                    String local = fromCache(chart, digest, nodeCache, listener);
+                    if (local != null) {
+                        return local;
+                    }
+                }
+            }
+
+            // Miss: pull on the node, then share the archive through the controller
+            listener.getLogger().println("Pulling chart " + chart + " into the chart cache");
+            FilePath pullDir = nodeCache.child(".pull-" + System.nanoTime());
+            pullDir.mkdirs();
+            try {
+                int exit = launcher.launch()
+                        .cmds(
+                                helmPath,
+                                "pull",
+                                chart.reference(),
+                                "--version",
+                                chart.version(),
+                                "--destination",
+                                pullDir.getRemote())
+                        .stdout(listener.getLogger())
+                        .stderr(listener.getLogger())
+                        .pwd(workspace)
+                        .join();
+                FilePath[] pulled = pullDir.list("*.tgz");
+                if (exit != 0 || pulled.length != 1) {
+                    listener.getLogger()
+                            .println("Could not cache chart " + chart.reference() + " (helm pull exit code " + exit
+                                    + "); Helm will fetch it directly");
+                    return null;
+                }
+                String digest = pulled[0].act(new Adopt(indexed, NODE_MAX_SIZE_BYTES));
+                FilePath local = nodeCache.child(digest + ".tgz");
+                store(key, digest, local);
+                return local.getRemote();
+            } finally {
+                pullDir.deleteRecursive();
+            }
+        }
+    }
+
+    /** The cached archive on the node, copied there from the controller if needed; null if neither has it. */
+    private String fromCache(ChartRef chart, String digest, FilePath nodeCache, TaskListener listener)
+            throws IOException, InterruptedException {
+        FilePath local = nodeCache.child(digest + ".tgz");
+        if (local.act(new TouchIfExists())) {
+            listener.getLogger().println("Using cached chart " + chart);
+            return local.getRemote();
+        }
+        File blob = new File(new File(root, "blobs"), digest + ".tgz");
+        if (blob.isFile() && blob.setLastModified(System.currentTimeMillis())) {
+            listener.getLogger().println("Copying cached chart " + chart + " to the node");
+            nodeCache.mkdirs();
+            FilePath tmp = nodeCache.child(".copy-" + System.nanoTime() + ".tmp");
+            tmp.copyFrom(new FilePath(blob));
+            String copied = tmp.act(new Adopt(digest, NODE_MAX_SIZE_BYTES));
+            return nodeCache.child(copied + ".tgz").getRemote();
+        }
+        return null;
+    }
+
+    private void store(String key, String digest, FilePath local) throws IOException, InterruptedException {
+        File blobs = new File(root, "blobs");
+        File refs = new File(root, "refs");
+        Files.createDirectories(blobs.toPath());
+        Files.createDirectories(refs.toPath());
+        File blob = new File(blobs, digest + ".tgz");
+        if (!blob.isFile()) {
+            Path tmp = Files.createTempFile(blobs.toPath(), digest, ".tmp");
+            try {
+                local.copyTo(new FilePath(tmp.toFile()));
+                Files.move(tmp, blob.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        Path pointerTmp = Files.createTempFile(refs.toPath(), key, ".tmp");
+        Files.writeString(pointerTmp, digest, StandardCharsets.UTF_8);
+        Files.move(
+                pointerTmp,
+                new File(refs, key).toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        LruEviction.evict(blobs, MAX_SIZE_BYTES, blob);
+    }
+
+    /**
+     * Looks up the digest of a chart version in the repository's index in Helm's repository cache on the node; null
+     * if the index or the entry is missing.
+     */
+    static final class IndexDigest extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final HashMap<String, String> helmEnv;
+        private final String repositoryName;
+        private final String chartName;
+        private final String version;
+
+        IndexDigest(Map<String, String> helmEnv, String repositoryName, String chartName, String version) {
+            this.helmEnv = new HashMap<>(helmEnv);
+            this.repositoryName = repositoryName;
+            this.chartName = chartName;
+            this.version = version;
+        }
+
+        @Override
+        public String invoke(File f, VirtualChannel channel) throws IOException {
+            File index = new File(
+                    new HelmRepositorySetup.HelmPaths(helmEnv).repositoryCache, repositoryName + "-index.yaml");
+            if (!index.isFile()) {
+                return null;
+            }
+            try (Reader reader = Files.newBufferedReader(index.toPath(), StandardCharsets.UTF_8)) {
+                return digestInIndex(reader, chartName, version);
+            } catch (YAMLException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Finds {@code entries.<chart>[version == version].digest} in a repository index. The index is read as an event
+     * stream, since indexes of large repositories run to tens of megabytes.
+     */
+    static String digestInIndex(Reader index, String chartName, String version) {
+        LoaderOptions options = new LoaderOptions();
+        options.setCodePointLimit(Integer.MAX_VALUE);
+        Deque<Frame> frames = new ArrayDeque<>();
+        String entryVersion = null;
+        String entryDigest = null;
+        for (Event event : new Yaml(options).parse(index)) {
+            Frame top = frames.peek();
+            if (event instanceof MappingStartEvent || event instanceof SequenceStartEvent) {
+                String parentKey = null;
+                if (top != null) {
+                    parentKey = top.key;
+                    top.key = null;
+                }
+                frames.push(new Frame(parentKey, event instanceof MappingStartEvent));
+            } else if (event instanceof MappingEndEvent || event instanceof SequenceEndEvent) {
+                frames.pop();
+                // End of an entry of the chart
+                if (event instanceof MappingEndEvent && frames.size() == 3 && isChart(frames, chartName)) {
+                    if (version.equals(entryVersion)) {
+                        return entryDigest;
+                    }
+                    entryVersion = null;
+                    entryDigest = null;
+                }
+            } else if ((event instanceof ScalarEvent || event instanceof AliasEvent) && top != null && top.mapping) {
+                String text = event instanceof ScalarEvent scalar ? scalar.getValue() : null;
+                if (top.key == null) {
+                    top.key = text;
+                    continue;
+                }
+                if (frames.size() == 4 && isChart(frames, chartName)) {
+                    if ("version".equals(top.key)) {
+                        entryVersion = text;
+                    } else if ("digest".equals(top.key)) {
+                        entryDigest = text;
+                    }
+                }
+                top.key = null;
+            }
+        }
+        return null;
+    }
+
+    /** True if the outer frames are the root mapping, {@code entries} and the chart's list of versions. */
+    private static boolean isChart(Deque<Frame> frames, String chartName) {
+        Iterator<Frame> fromRoot = frames.descendingIterator();
+        fromRoot.next();
+        return "entries".equals(fromRoot.next().parentKey) && chartName.equals(fromRoot.next().parentKey);
+    }
+
+    /** An open mapping or sequence of the index: the key it is the value of and, for a mapping, the pending key. */
+    private static final class Frame {
+        final String parentKey;
+        final boolean mapping;
+        String key;
+
+        Frame(String parentKey, boolean mapping) {
+            this.parentKey = parentKey;
+            this.mapping = mapping;
+        }
+    }
+
+    /** Marks a cached file as recently used; returns false if it does not exist. */
+    static final class TouchIfExists extends MasterToSlaveFileCallable<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Boolean invoke(File f, VirtualChannel channel) {
+            return f.isFile() && f.setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Hashes a downloaded chart and moves it into the node cache as {@code <sha256>.tgz}, then bounds the cache size.
+     * Returns the digest.
+     */
+    private static final class Adopt extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final String expectedSha256;
+        private final long maxBytes;
+
+        Adopt(String expectedSha256, long maxBytes) {
+            this.expectedSha256 = expectedSha256;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public String invoke(File f, VirtualChannel channel) throws IOException {
+            String digest = HelmDigests.sha256(f);
+            if (expectedSha256 != null && !expectedSha256.equals(digest)) {
+                Files.deleteIfExists(f.toPath());
+                throw new IOException("Chart archive " + f.getName() + " has sha256 " + digest + " but "
+                        + expectedSha256 + " was expected (from the repository index or the controller cache)");
+            }
+            File dir = f.getAbsoluteFile().getParentFile();
+            if (dir != null && dir.getName().startsWith(".pull-")) {
+                dir = dir.getParentFile();
+            }
+            if (dir == null) {
+                throw new IOException("Invalid chart path " + f);
+            }
+            File target = new File(dir, digest + ".tgz");
+            Files.move(
+                    f.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LruEviction.evict(dir, maxBytes, target);
+            return digest;
+        }
+    }
+}
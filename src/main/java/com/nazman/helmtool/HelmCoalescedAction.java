@@ -0,0 +1,47 @@
+package com.nazman.helmtool;
+
+import hudson.model.BuildBadgeAction;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Marks a build whose upgrade was skipped because a later build deploys the same release. Shown as a badge in the
+ * build history and as a line on the build page; the build result is left alone, since the rest of it did run.
+ */
+@ExportedBean
+public class HelmCoalescedAction implements BuildBadgeAction {
+
+    private final String release;
+    private final String supersededBy;
+
+    public HelmCoalescedAction(String release, String supersededBy) {
+        this.release = release;
+        this.supersededBy = supersededBy;
+    }
+
+    @Exported
+    public String getRelease() {
+        return release;
+    }
+
+    /** The build that deploys the release instead. */
+    @Exported
+    public String getSupersededBy() {
+        return supersededBy;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Helm upgrade skipped";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+}
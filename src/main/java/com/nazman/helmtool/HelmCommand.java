@@ -0,0 +1,175 @@
+package com.nazman.helmtool;
+
+import hudson.Util;
+import hudson.util.ArgumentListBuilder;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A Helm command line as a list of arguments, so values containing spaces or quotes reach Helm unchanged instead of
+ * being re-tokenized by {@code cmdAsSingleString}. Only the free-form additional arguments are tokenized, once, when
+ * they are added. Secret arguments are masked in {@link #toString()} and in the launcher's own echo.
+ *
+ * <p>{@code --set} maps are emitted in key order, so equal inputs always produce the same command line.
+ */
+final class HelmCommand {
+
+    private final List<String> args;
+    private final BitSet masked = new BitSet();
+
+    private HelmCommand(int expectedSize) {
+        this.args = new ArrayList<>(expectedSize);
+    }
+
+    /** Starts a command: the Helm binary followed by the subcommand words, e.g. {@code "repo", "add"}. */
+    static HelmCommand of(String helmPath, String... subcommand) {
+        HelmCommand command = new HelmCommand(subcommand.length + 8);
+        command.args.add(helmPath);
+        for (String word : subcommand) {
+            command.args.add(word);
+        }
+        return command;
+    }
+
+    HelmCommand add(String arg) {
+        args.add(arg);
+        return this;
+    }
+
+    /** Adds an argument that is hidden wherever the command line is printed. */
+    HelmCommand addMasked(String arg) {
+        masked.set(args.size());
+        args.add(arg);
+        return this;
+    }
+
+    /** Adds {@code flag value}, or nothing if the value is null or blank. */
+    HelmCommand option(String flag, String value) {
+        if (value != null && !value.trim().isEmpty()) {
+            args.add(flag);
+            args.add(value.trim());
+        }
+        return this;
+    }
+
+    /** Adds {@code -f <file>} for each non-blank file, in order (later files take precedence in Helm). */
+    HelmCommand valuesFiles(List<String> files) {
+        if (files != null) {
+            for (String file : files) {
+                option("-f", file);
+            }
+        }
+        return this;
+    }
+
+    /** Adds {@code --set key=value} for each entry, ordered by key. */
+    HelmCommand set(Map<String, String> values) {
+        return set(values, false);
+    }
+
+    /** Adds {@code --set key=value} for each entry, ordered by key, with the values masked. */
+    HelmCommand setSecret(Map<String, String> values) {
+        return set(values, true);
+    }
+
+    private HelmCommand set(Map<String, String> values, boolean secret) {
+        if (values == null || values.isEmpty()) {
+            return this;
+        }
+        Map<String, String> sorted = values instanceof TreeMap ? values : new TreeMap<>(values);
+        for (Map.Entry<String, String> e : sorted.entrySet()) {
+            args.add("--set");
+            if (secret) {
+                addMasked(e.getKey() + "=" + Util.fixNull(e.getValue()));
+            } else {
+                args.add(e.getKey() + "=" + Util.fixNull(e.getValue()));
+            }
+        }
+        return this;
+    }
+
+    /** Adds free-form arguments typed by the user, split like a shell would (quotes group words). */
+    HelmCommand additionalArgs(String additionalArgs) {
+        if (additionalArgs != null && !additionalArgs.trim().isEmpty()) {
+            for (String arg : Util.tokenize(additionalArgs)) {
+                args.add(arg);
+            }
+        }
+        return this;
+    }
+
+    int size() {
+        return args.size();
+    }
+
+    String get(int index) {
+        return args.get(index);
+    }
+
+    boolean isMasked(int index) {
+        return masked.get(index);
+    }
+
+    ArgumentListBuilder toArgumentList() {
+        ArgumentListBuilder builder = new ArgumentListBuilder();
+        for (int i = 0; i < args.size(); i++) {
+            builder.add(args.get(i), masked.get(i));
+        }
+        return builder;
+    }
+
+    /**
+     * The command as a shell script line for a durable task. Secret arguments are not written into the script; they
+     * are read from environment variables returned in {@link Script#env}.
+     *
+     * @param windows true for a batch file ({@code cmd.exe} quoting), false for a Bourne shell script
+     */
+    Script toScript(boolean windows) {
+        StringBuilder b = new StringBuilder(args.size() * 16);
+        Map<String, String> env = new TreeMap<>();
+        for (int i = 0; i < args.size(); i++) {
+            if (i > 0) {
+                b.append(' ');
+            }
+            if (masked.get(i)) {
+                String variable = "HELM_TOOL_SECRET_" + env.size();
+                env.put(variable, args.get(i));
+                b.append(windows ? "\"%" + variable + "%\"" : "\"$" + variable + "\"");
+            } else if (windows) {
+                b.append('"').append(args.get(i).replace("%", "%%").replace("\"", "\"\"")).append('"');
+            } else {
+                b.append('\'').append(args.get(i).replace("'", "'\\''")).append('\'');
+            }
+        }
+        return new Script(b.toString(), env);
+    }
+
+    /** A script line and the environment variables carrying its secret arguments. */
+    record Script(String text, Map<String, String> env) {}
+
+    /** The command line for logs: secrets masked, arguments with spaces or quotes quoted. */
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder(args.size() * 16);
+        for (int i = 0; i < args.size(); i++) {
+            if (i > 0) {
+                b.append(' ');
+            }
+            String arg = args.get(i);
+            if (masked.get(i)) {
+                int eq = arg.indexOf('=');
+                b.append(eq > 0 ? arg.substring(0, eq + 1) : "").append("****");
+            } else if (arg.isEmpty() || arg.chars().anyMatch(c -> Character.isWhitespace(c) || c == '"' || c == '\'')) {
+                b.append('"')
+                        .append(arg.replace("\\", "\\\\").replace("\"", "\\\""))
+                        .append('"');
+            } else {
+                b.append(arg);
+            }
+        }
+        return b.toString();
+    }
+}
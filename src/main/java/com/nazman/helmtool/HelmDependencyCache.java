@@ -0,0 +1,253 @@
+package com.nazman.helmtool;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.regex.Pattern;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Cache of the subchart archives {@code helm dependency build} vendors into a local chart's {@code charts/}
+ * directory, keyed by the SHA-256 of {@code Chart.yaml} and {@code Chart.lock}.
+ *
+ * <p>On a miss the dependencies are built once and the resulting archives stored as a tar under
+ * {@code <node root>/caches/helm-tool/chart-deps} and {@code $JENKINS_HOME/caches/helm-tool/chart-deps}. Later builds
+ * of the same chart on any agent unpack them instead of downloading every subchart again. Charts without a
+ * {@code Chart.lock}, or with {@code file://} dependencies whose content the key would not cover, are built every
+ * time as before.
+ */
+final class HelmDependencyCache {
+
+    /** Maximum total size of dependency sets cached on the controller (bytes). */
+    static final long MAX_SIZE_BYTES =
+            SystemProperties.getLong(HelmDependencyCache.class.getName() + ".maxSizeBytes", 1024L * 1024 * 1024);
+
+    /** Maximum total size of dependency sets cached on each node (bytes). */
+    static final long NODE_MAX_SIZE_BYTES =
+            SystemProperties.getLong(HelmDependencyCache.class.getName() + ".nodeMaxSizeBytes", 1024L * 1024 * 1024);
+
+    /** Directory of the per-node cache, relative to the node root. */
+    static final String NODE_CACHE_DIR = "caches/helm-tool/chart-deps";
+
+    private static volatile HelmDependencyCache instance;
+
+    private final File root;
+    private final KeyedLock locks = new KeyedLock();
+
+    HelmDependencyCache(File root) {
+        this.root = root;
+    }
+
+    static HelmDependencyCache get() {
+        HelmDependencyCache cache = instance;
+        if (cache == null) {
+            synchronized (HelmDependencyCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    cache = new HelmDependencyCache(
+                            new File(Jenkins.get().getRootDir(), "caches/helm-tool/chart-deps"));
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Fills {@code charts/} of the local chart at {@code chartPath} from the cache, running
+     * {@code helm dependency build} on a miss. Does nothing if the path is not a chart directory or the chart has no
+     * dependencies.
+     *
+     * @throws IOException if {@code helm dependency build} fails
+     */
+    void restore(HelmSession helm, String chartPath) throws IOException, InterruptedException {
+        FilePath chartDir = helm.workspace.child(chartPath);
+        Probe probe = chartDir.act(new ProbeChart());
+        if (probe == null || !probe.dependencies()) {
+            return;
+        }
+        FilePath rootPath = helm.node.getRootPath();
+        if (probe.key() == null || rootPath == null) {
+            helm.listener
+                    .getLogger()
+                    .println("Dependencies of chart " + chartPath
+                            + " are not cached (no Chart.lock, or file:// dependencies)");
+            build(helm, chartDir);
+            return;
+        }
+        String key = probe.key();
+        FilePath nodeCache = rootPath.child(NODE_CACHE_DIR);
+        FilePath local = nodeCache.child(key + ".tar");
+        try (KeyedLock.Held ignored = locks.acquire(key)) {
+            if (local.act(new HelmChartCache.TouchIfExists())) {
+                helm.listener.getLogger().println("Restoring dependencies of chart " + chartPath + " from the cache");
+                chartDir.act(new Unpack(local.getRemote()));
+                return;
+            }
+            File blob = new File(root, key + ".tar");
+            if (blob.isFile() && blob.setLastModified(System.currentTimeMillis())) {
+                helm.listener
+                        .getLogger()
+                        .println("Restoring dependencies of chart " + chartPath + " from the controller cache");
+                nodeCache.mkdirs();
+                FilePath tmp = nodeCache.child(".copy-" + System.nanoTime() + ".tmp");
+                tmp.copyFrom(new FilePath(blob));
+                tmp.act(new Adopt(key + ".tar", NODE_MAX_SIZE_BYTES));
+                chartDir.act(new Unpack(local.getRemote()));
+                return;
+            }
+
+            build(helm, chartDir);
+            nodeCache.mkdirs();
+            chartDir.act(new Pack(local.getRemote(), NODE_MAX_SIZE_BYTES));
+            store(blob, local);
+        }
+    }
+
+    private static void build(HelmSession helm, FilePath chartDir) throws IOException, InterruptedException {
+        HelmCommand command = helm.command("dependency", "build").add(chartDir.getRemote());
+        int exitCode = helm.launchCaptured(command, "dependency-build", helm.listener.getLogger());
+        if (exitCode != 0) {
+            throw new IOException("helm dependency build failed with exit code " + exitCode);
+        }
+    }
+
+    private void store(File blob, FilePath local) throws IOException, InterruptedException {
+        Files.createDirectories(root.toPath());
+        Path tmp = Files.createTempFile(root.toPath(), blob.getName(), ".tmp");
+        try {
+            local.copyTo(new FilePath(tmp.toFile()));
+            Files.move(tmp, blob.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        LruEviction.evict(root, MAX_SIZE_BYTES, blob);
+    }
+
+    /** What {@link ProbeChart} found: whether the chart has dependencies, and the cache key if it is cacheable. */
+    record Probe(boolean dependencies, String key) implements Serializable {}
+
+    /** Reads {@code Chart.yaml} and {@code Chart.lock}; null if the directory holds no chart. */
+    private static final class ProbeChart extends MasterToSlaveFileCallable<Probe> {
+        private static final long serialVersionUID = 1L;
+
+        private static final Pattern DEPENDENCIES = Pattern.compile("(?m)^dependencies:");
+        private static final Pattern NO_DEPENDENCIES = Pattern.compile("(?m)^dependencies:\\s*\\[\\s*]\\s*$");
+
+        @Override
+        public Probe invoke(File dir, VirtualChannel channel) throws IOException {
+            File chartYaml = new File(dir, "Chart.yaml");
+            if (!chartYaml.isFile()) {
+                return null;
+            }
+            byte[] chart = Files.readAllBytes(chartYaml.toPath());
+            String text = new String(chart, StandardCharsets.UTF_8);
+            if (!DEPENDENCIES.matcher(text).find() || NO_DEPENDENCIES.matcher(text).find()) {
+                return new Probe(false, null);
+            }
+            File chartLock = new File(dir, "Chart.lock");
+            if (!chartLock.isFile() || text.contains("file://")) {
+                return new Probe(true, null);
+            }
+            MessageDigest digest = HelmDigests.newSha256();
+            digest.update(chart);
+            digest.update((byte) 0);
+            digest.update(Files.readAllBytes(chartLock.toPath()));
+            return new Probe(true, HelmDigests.hex(digest.digest()));
+        }
+    }
+
+    /** Writes {@code charts/*.tgz} of the chart into the node cache as a tar, then bounds the cache size. */
+    private static final class Pack extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String target;
+        private final long maxBytes;
+
+        Pack(String target, long maxBytes) {
+            this.target = target;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public Void invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            File tar = new File(target);
+            File cacheDir = tar.getParentFile();
+            if (cacheDir == null) {
+                throw new IOException("Invalid cache path " + target);
+            }
+            Path tmp = Files.createTempFile(cacheDir.toPath(), tar.getName(), ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    new FilePath(new File(dir, "charts")).tar(out, "*.tgz");
+                }
+                Files.move(tmp, tar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            LruEviction.evict(cacheDir, maxBytes, tar);
+            return null;
+        }
+    }
+
+    /** Replaces the archives in the chart's {@code charts/} directory with the cached ones. */
+    private static final class Unpack extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String source;
+
+        Unpack(String source) {
+            this.source = source;
+        }
+
+        @Override
+        public Void invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            File charts = new File(dir, "charts");
+            File[] stale = charts.listFiles((d, name) -> name.endsWith(".tgz"));
+            if (stale != null) {
+                for (File f : stale) {
+                    Files.delete(f.toPath());
+                }
+            }
+            Files.createDirectories(charts.toPath());
+            new FilePath(new File(source)).untar(new FilePath(charts), FilePath.TarCompression.NONE);
+            return null;
+        }
+    }
+
+    /** Moves a copied tar into place in the node cache and bounds the cache size. */
+    private static final class Adopt extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final long maxBytes;
+
+        Adopt(String name, long maxBytes) {
+            this.name = name;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException {
+            File dir = f.getAbsoluteFile().getParentFile();
+            if (dir == null) {
+                throw new IOException("Invalid cache path " + f);
+            }
+            File target = new File(dir, name);
+            Files.move(
+                    f.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LruEviction.evict(dir, maxBytes, target);
+            return null;
+        }
+    }
+}
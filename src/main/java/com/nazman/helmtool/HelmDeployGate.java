@@ -0,0 +1,194 @@
+package com.nazman.helmtool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.util.Properties;
+import java.util.Set;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Skips deploys that would not change anything. The chart is rendered with {@code helm template} using the same
+ * values and arguments as the upgrade, and the SHA-256 of the output is compared with the one recorded after the last
+ * successful deploy of the release. The upgrade is skipped only if the hashes match and the release is still at the
+ * revision that deploy produced, in state {@code deployed}, so releases changed, removed or left failed or pending
+ * outside Jenkins are deployed again.
+ *
+ * <p>Hashes are kept on the controller under {@code $JENKINS_HOME/caches/helm-tool/releases}, one file per
+ * {@link HelmReleaseTarget}.
+ */
+final class HelmDeployGate {
+
+    /** {@code helm upgrade} flags that {@code helm template} does not accept. */
+    private static final Set<String> UPGRADE_ONLY_FLAGS = Set.of(
+            "-i",
+            "--install",
+            "--force",
+            "--reset-values",
+            "--reuse-values",
+            "--reset-then-reuse-values",
+            "--cleanup-on-fail");
+
+    /** As {@link #UPGRADE_ONLY_FLAGS}, for flags followed by a value. */
+    private static final Set<String> UPGRADE_ONLY_VALUE_FLAGS = Set.of("--history-max");
+
+    private static volatile HelmDeployGate instance;
+
+    private final File root;
+    private final KeyedLock locks = new KeyedLock();
+
+    HelmDeployGate(File root) {
+        this.root = root;
+    }
+
+    static HelmDeployGate get() {
+        HelmDeployGate gate = instance;
+        if (gate == null) {
+            synchronized (HelmDeployGate.class) {
+                gate = instance;
+                if (gate == null) {
+                    gate = new HelmDeployGate(new File(Jenkins.get().getRootDir(), "caches/helm-tool/releases"));
+                    instance = gate;
+                }
+            }
+        }
+        return gate;
+    }
+
+    /**
+     * Renders the chart with the values and arguments of {@code upgrade} and returns the SHA-256 of the manifests, or
+     * null if the deploy cannot be gated (a dry run, or rendering failed; the upgrade then runs as usual).
+     *
+     * @param upgrade the {@code helm upgrade --install} command that would deploy the release
+     */
+    String render(HelmSession helm, HelmCommand upgrade) throws IOException, InterruptedException {
+        HelmCommand template = HelmCommand.of(upgrade.get(0), "template");
+        // Skip the binary and the "upgrade" subcommand, keeping release, chart, values and flags
+        for (int i = 2; i < upgrade.size(); i++) {
+            String arg = upgrade.get(i);
+            if (arg.equals("--dry-run") || arg.startsWith("--dry-run=")) {
+                return null;
+            }
+            String flag = arg.contains("=") ? arg.substring(0, arg.indexOf('=')) : arg;
+            if (UPGRADE_ONLY_FLAGS.contains(flag)) {
+                continue;
+            }
+            if (UPGRADE_ONLY_VALUE_FLAGS.contains(flag)) {
+                if (!arg.contains("=")) {
+                    i++;
+                }
+                continue;
+            }
+            if (upgrade.isMasked(i)) {
+                template.addMasked(arg);
+            } else {
+                template.add(arg);
+            }
+        }
+
+        DigestOutputStream digest = new DigestOutputStream(OutputStream.nullOutputStream(), HelmDigests.newSha256());
+        int exitCode = helm.run(template, digest, helm.listener.getLogger());
+        if (exitCode != 0) {
+            helm.listener
+                    .getLogger()
+                    .println("helm template failed with exit code " + exitCode
+                            + "; deploying without the change check");
+            return null;
+        }
+        return HelmDigests.hex(digest.getMessageDigest().digest());
+    }
+
+    /** True if the rendered manifests and the release revision are what the last recorded deploy left behind. */
+    boolean unchanged(HelmSession helm, HelmReleaseTarget target, String renderedSha256)
+            throws IOException, InterruptedException {
+        Properties recorded;
+        try (KeyedLock.Held ignored = locks.acquire(target.key())) {
+            recorded = load(target);
+        }
+        if (recorded == null || !renderedSha256.equals(recorded.getProperty("renderedSha256"))) {
+            return false;
+        }
+        String revision = revision(helm, target);
+        return revision != null && revision.equals(recorded.getProperty("revision"));
+    }
+
+    /** Remembers the rendered manifests and the resulting revision after a successful deploy. */
+    void record(HelmSession helm, HelmReleaseTarget target, String renderedSha256)
+            throws IOException, InterruptedException {
+        String revision = revision(helm, target);
+        if (revision == null) {
+            return;
+        }
+        try (KeyedLock.Held ignored = locks.acquire(target.key())) {
+            Files.createDirectories(root.toPath());
+            Properties p = new Properties();
+            p.setProperty("release", target.toString());
+            p.setProperty("renderedSha256", renderedSha256);
+            p.setProperty("revision", revision);
+            Path tmp = Files.createTempFile(root.toPath(), "release", ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    p.store(out, null);
+                }
+                Files.move(
+                        tmp,
+                        file(target).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    private Properties load(HelmReleaseTarget target) throws IOException {
+        File file = file(target);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            p.load(in);
+        }
+        return p;
+    }
+
+    private File file(HelmReleaseTarget target) {
+        return new File(root, HelmDigests.sha256(target.key()) + ".properties");
+    }
+
+    /**
+     * The deployed revision of the release from {@code helm status}, or null if it is not installed or its last
+     * operation did not end in {@code deployed} (e.g. {@code failed} or {@code pending-upgrade}).
+     */
+    private static String revision(HelmSession helm, HelmReleaseTarget target)
+            throws IOException, InterruptedException {
+        HelmCommand status = helm.command("status").add(target.releaseName).add("--output").add("json");
+        for (String arg : target.scopeArgs()) {
+            status.add(arg);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (helm.run(status, out, OutputStream.nullOutputStream()) != 0) {
+            return null;
+        }
+        try {
+            JSONObject json = JSONObject.fromObject(out.toString(StandardCharsets.UTF_8));
+            JSONObject info = json.optJSONObject("info");
+            if (info == null || !"deployed".equals(info.optString("status")) || !json.has("version")) {
+                return null;
+            }
+            return json.getString("version");
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
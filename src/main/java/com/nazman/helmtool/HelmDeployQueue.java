@@ -0,0 +1,203 @@
+package com.nazman.helmtool;
+
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs at most one upgrade per release at a time on this controller and collapses the ones waiting behind it: while
+ * an upgrade runs, only the newest request for the same release waits, and any older request is superseded, since the
+ * newer one deploys a later state anyway. Requests are ordered by build, not by arrival, so a slow older build never
+ * replaces a newer one, whether that one is still queued, running or already done (the last build to upgrade each of
+ * the {@link #MAX_REMEMBERED} most recent releases is remembered). Releases are identified by
+ * {@link HelmReleaseTarget#key()}.
+ *
+ * <p>Waiting does not hold a thread: a request returns a {@link Ticket} at once, whose {@link Ticket#turn()}
+ * completes when the request may upgrade or has been superseded. The queue is in memory only; after a controller
+ * restart it starts empty.
+ */
+final class HelmDeployQueue {
+
+    private static final HelmDeployQueue INSTANCE = new HelmDeployQueue();
+
+    /** How many releases the last upgrading build is remembered for. */
+    static final int MAX_REMEMBERED = 1000;
+
+    /** Guarded by {@code this}. */
+    private final Map<String, Lane> lanes = new HashMap<>();
+
+    /**
+     * The newest build that had its turn per release, kept after the lane empties so a build arriving late cannot
+     * replace it. Least recently used releases are forgotten first. Guarded by {@code this}.
+     */
+    private final Map<String, Requester> lastRun = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Requester> eldest) {
+            return size() > MAX_REMEMBERED;
+        }
+    };
+
+    static HelmDeployQueue get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues a request to upgrade a release. The returned ticket must be closed after the upgrade, or when the caller
+     * gives up; if it is {@linkplain Ticket#isSuperseded() superseded} once its turn completes, a newer build deploys
+     * the release and the caller should skip its upgrade.
+     */
+    Ticket request(String key, Requester requester) {
+        Ticket ticket = new Ticket(key, requester);
+        List<Ticket> ready = new ArrayList<>(2);
+        synchronized (this) {
+            Lane lane = lanes.get(key);
+            Requester last = lastRun.get(key);
+            if (lane == null && last != null && requester.isOlderThan(last)) {
+                // A newer build already upgraded the release
+                ticket.supersededBy = last;
+                ready.add(ticket);
+            } else if (lane == null) {
+                lane = new Lane();
+                lanes.put(key, lane);
+                lane.running = ticket;
+                ready.add(ticket);
+            } else {
+                ticket.blockedBy = lane.running.requester;
+                Ticket newest = lane.waiting != null ? lane.waiting : lane.running;
+                if (requester.isOlderThan(newest.requester)) {
+                    ticket.supersededBy = newest.requester;
+                    ready.add(ticket);
+                } else {
+                    if (lane.waiting != null) {
+                        lane.waiting.supersededBy = requester;
+                        ready.add(lane.waiting);
+                    }
+                    lane.waiting = ticket;
+                }
+            }
+        }
+        // Outside the lock: callbacks registered on the turn may run on this thread
+        ready.forEach(Ticket::ready);
+        return ticket;
+    }
+
+    private void close(Ticket ticket) {
+        Ticket next = null;
+        synchronized (this) {
+            Lane lane = lanes.get(ticket.key);
+            if (lane == null) {
+                return;
+            }
+            if (lane.waiting == ticket) {
+                lane.waiting = null;
+            } else if (lane.running == ticket) {
+                Requester last = lastRun.get(ticket.key);
+                if (last == null || last.isOlderThan(ticket.requester)) {
+                    lastRun.put(ticket.key, ticket.requester);
+                }
+                lane.running = lane.waiting;
+                lane.waiting = null;
+                next = lane.running;
+            }
+            if (lane.running == null && lane.waiting == null) {
+                lanes.remove(ticket.key, lane);
+            }
+        }
+        if (next != null) {
+            next.ready();
+        }
+    }
+
+    /**
+     * The build behind a request. Builds of the same job are ordered by number, others by when they were scheduled.
+     */
+    record Requester(String job, int number, long scheduledMillis, String displayName) {
+
+        static Requester of(Run<?, ?> run) {
+            return new Requester(
+                    run.getParent().getFullName(), run.getNumber(), run.getTimeInMillis(), run.getFullDisplayName());
+        }
+
+        boolean isOlderThan(Requester other) {
+            return job.equals(other.job) ? number < other.number : scheduledMillis < other.scheduledMillis;
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    /** The running and the waiting request of one release. */
+    private static final class Lane {
+        Ticket running;
+        Ticket waiting;
+    }
+
+    /** A request's turn to upgrade its release; closing it lets the next request run. */
+    final class Ticket implements AutoCloseable {
+        private final String key;
+        private final Requester requester;
+        private final CompletableFuture<Ticket> turn = new CompletableFuture<>();
+        /** Guarded by the queue. */
+        private Requester blockedBy;
+        /** Guarded by the queue. */
+        private Requester supersededBy;
+
+        private Ticket(String key, Requester requester) {
+            this.key = key;
+            this.requester = requester;
+        }
+
+        private void ready() {
+            turn.complete(this);
+        }
+
+        /** Completes with this ticket when the request may upgrade or has been superseded; never exceptionally. */
+        CompletableFuture<Ticket> turn() {
+            return turn;
+        }
+
+        /** Blocks until {@link #turn()} completes; an interrupted caller gives up its place. */
+        void await() throws InterruptedException {
+            try {
+                turn.get();
+            } catch (InterruptedException e) {
+                close();
+                throw e;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /** The request whose upgrade was running when this one was queued, or null if it could start at once. */
+        Requester blockedBy() {
+            synchronized (HelmDeployQueue.this) {
+                return blockedBy;
+            }
+        }
+
+        boolean isSuperseded() {
+            synchronized (HelmDeployQueue.this) {
+                return supersededBy != null;
+            }
+        }
+
+        /** The request that will deploy instead of this one, or null. */
+        Requester supersededBy() {
+            synchronized (HelmDeployQueue.this) {
+                return supersededBy;
+            }
+        }
+
+        @Override
+        public void close() {
+            HelmDeployQueue.this.close(this);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.nazman.helmtool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/** SHA-256 helpers shared by the installer and the caches. */
+final class HelmDigests {
+
+    private HelmDigests() {}
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available in this JVM", e);
+        }
+    }
+
+    static String hex(byte[] digest) {
+        return HexFormat.of().formatHex(digest);
+    }
+
+    /** SHA-256 of a string (UTF-8), used to derive file names from URLs and other keys. */
+    static String sha256(String value) {
+        return hex(newSha256().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest md = newSha256();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                md.update(buffer, 0, n);
+            }
+        }
+        return hex(md.digest());
+    }
+
+    /**
+     * Normalizes a user-supplied checksum: trims, lower-cases and strips an optional {@code sha256:} prefix.
+     *
+     * @return the hex digest, or null when the value is empty
+     */
+    static String normalizeChecksum(String value) {
+        if (value == null) {
+            return null;
+        }
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        if (v.startsWith("sha256:")) {
+            v = v.substring("sha256:".length()).trim();
+        }
+        return v.isEmpty() ? null : v;
+    }
+}
@@ -0,0 +1,351 @@
+package com.nazman.helmtool;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads an archive with parallel HTTP Range requests into part files that survive failures, so an interrupted
+ * download resumes where it stopped instead of starting from zero. Servers without range support get a single
+ * stream. A read that stalls, or throughput that stays below a floor for a whole window, aborts the attempt quickly
+ * instead of holding the caller for minutes; the segment is then retried from its last byte.
+ *
+ * <p>The engine has no Jenkins dependencies and only needs a URL and a work directory, so it can be exercised
+ * against a local HTTP server.
+ */
+final class HelmDownloader {
+
+    private static final Logger LOGGER = Logger.getLogger(HelmDownloader.class.getName());
+
+    private static final Pattern CONTENT_RANGE_TOTAL = Pattern.compile("bytes\\s+\\d+-\\d+/(\\d+)");
+
+    private final int parallelism;
+    private final long minSegmentBytes;
+    private final int connectTimeoutMs;
+    private final int stallTimeoutMs;
+    private final long minBytesPerSecond;
+    private final int maxAttempts;
+
+    /**
+     * @param parallelism       maximum number of concurrent range requests
+     * @param minSegmentBytes   archives are split into segments of at least this size
+     * @param connectTimeoutMs  connect timeout per request
+     * @param stallTimeoutMs    a read blocking this long, or a window of this length below {@code minBytesPerSecond},
+     *                          aborts the attempt
+     * @param minBytesPerSecond throughput floor enforced over each stall window
+     * @param maxAttempts       attempts per segment before the download fails
+     */
+    HelmDownloader(
+            int parallelism,
+            long minSegmentBytes,
+            int connectTimeoutMs,
+            int stallTimeoutMs,
+            long minBytesPerSecond,
+            int maxAttempts) {
+        this.parallelism = Math.max(1, parallelism);
+        this.minSegmentBytes = Math.max(1, minSegmentBytes);
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.stallTimeoutMs = stallTimeoutMs;
+        this.minBytesPerSecond = minBytesPerSecond;
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    /**
+     * Downloads {@code downloadUrl} to {@code target}, keeping partial state in {@code workDir} under {@code key}.
+     *
+     * @return the SHA-256 of the downloaded content
+     */
+    String download(String downloadUrl, File workDir, String key, File target)
+            throws IOException, InterruptedException {
+        URL url;
+        try {
+            url = new java.net.URI(downloadUrl).toURL();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Invalid download URL: " + downloadUrl, e);
+        }
+        Files.createDirectories(workDir.toPath());
+
+        Probe probe = probe(url);
+        List<Segment> segments = plan(probe, workDir, key);
+        String ranges = Segment.ranges(segments);
+        File metaFile = new File(workDir, key + ".meta");
+        if (!probe.matches(metaFile, ranges)) {
+            // Remote content or the segment plan changed (or first attempt): partial data cannot be reused
+            deleteParts(workDir, key);
+        }
+        probe.store(metaFile, ranges);
+
+        if (segments.size() == 1) {
+            fetchWithRetries(url, segments.get(0), probe.acceptsRanges);
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(
+                    Math.min(parallelism, segments.size()),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "HelmDownloader"));
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (Segment segment : segments) {
+                    futures.add(pool.submit(() -> {
+                        fetchWithRetries(url, segment, true);
+                        return null;
+                    }));
+                }
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Download of " + downloadUrl + " failed", cause);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        String digest = assemble(segments, target);
+        deleteParts(workDir, key);
+        Files.deleteIfExists(metaFile.toPath());
+        return digest;
+    }
+
+    private Probe probe(URL url) throws IOException {
+        URLConnection conn = open(url);
+        conn.setRequestProperty("Range", "bytes=0-0");
+        try {
+            conn.connect();
+            String etag = conn.getHeaderField("ETag");
+            String lastModified = conn.getHeaderField("Last-Modified");
+            if (conn instanceof HttpURLConnection http && http.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
+                String contentRange = conn.getHeaderField("Content-Range");
+                Matcher m = contentRange != null ? CONTENT_RANGE_TOTAL.matcher(contentRange) : null;
+                if (m != null && m.matches()) {
+                    return new Probe(Long.parseLong(m.group(1)), true, etag, lastModified);
+                }
+            }
+            return new Probe(conn.getContentLengthLong(), false, etag, lastModified);
+        } finally {
+            if (conn instanceof HttpURLConnection http) {
+                http.disconnect();
+            }
+        }
+    }
+
+    private List<Segment> plan(Probe probe, File workDir, String key) {
+        List<Segment> segments = new ArrayList<>();
+        if (!probe.acceptsRanges || probe.length <= 0) {
+            segments.add(new Segment(new File(workDir, key + ".part0"), 0, -1));
+            return segments;
+        }
+        int count = (int) Math.max(1, Math.min(parallelism, probe.length / minSegmentBytes));
+        long size = probe.length / count;
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            long end = i == count - 1 ? probe.length - 1 : start + size - 1;
+            segments.add(new Segment(new File(workDir, key + ".part" + i), start, end));
+        }
+        return segments;
+    }
+
+    private void fetchWithRetries(URL url, Segment segment, boolean resumable)
+            throws IOException, InterruptedException {
+        IOException last = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            try {
+                fetch(url, segment, resumable);
+                return;
+            } catch (IOException e) {
+                last = e;
+                LOGGER.log(
+                        Level.FINE,
+                        "Attempt " + attempt + " for " + segment.file.getName() + " of " + url + " failed",
+                        e);
+            }
+        }
+        throw last;
+    }
+
+    private void fetch(URL url, Segment segment, boolean resumable) throws IOException {
+        long have = resumable ? segment.file.length() : 0;
+        if (segment.end >= 0 && have >= segment.length()) {
+            return; // already complete
+        }
+        URLConnection conn = open(url);
+        if (resumable) {
+            String end = segment.end >= 0 ? Long.toString(segment.end) : "";
+            conn.setRequestProperty("Range", "bytes=" + (segment.start + have) + "-" + end);
+        }
+        try (InputStream in = conn.getInputStream();
+                OutputStream out = Files.newOutputStream(
+                        segment.file.toPath(),
+                        StandardOpenOption.CREATE,
+                        have > 0 ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+            if (have > 0
+                    && conn instanceof HttpURLConnection http
+                    && http.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Server ignored the range request for " + url);
+            }
+            copyWithStallDetection(in, out, url);
+        } finally {
+            if (conn instanceof HttpURLConnection http) {
+                http.disconnect();
+            }
+        }
+        if (segment.end >= 0 && segment.file.length() != segment.length()) {
+            throw new IOException("Incomplete segment " + segment.file.getName() + " for " + url + ": got "
+                    + segment.file.length() + " of " + segment.length() + " bytes");
+        }
+    }
+
+    private void copyWithStallDetection(InputStream in, OutputStream out, URL url) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long windowStart = System.nanoTime();
+        long windowBytes = 0;
+        long minWindowBytes = minBytesPerSecond * stallTimeoutMs / 1000;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+            windowBytes += n;
+            long elapsedMs = (System.nanoTime() - windowStart) / 1_000_000;
+            if (elapsedMs >= stallTimeoutMs) {
+                if (windowBytes < minWindowBytes) {
+                    throw new IOException("Download of " + url + " stalled: " + windowBytes + " bytes in "
+                            + elapsedMs + " ms");
+                }
+                windowStart = System.nanoTime();
+                windowBytes = 0;
+            }
+        }
+    }
+
+    private URLConnection open(URL url) throws IOException {
+        URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(connectTimeoutMs);
+        // A read blocking for the whole stall window fails the attempt
+        conn.setReadTimeout(stallTimeoutMs);
+        return conn;
+    }
+
+    private static String assemble(List<Segment> segments, File target) throws IOException {
+        MessageDigest md = HelmDigests.newSha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(target.toPath())) {
+            for (Segment segment : segments) {
+                try (InputStream in = Files.newInputStream(segment.file.toPath())) {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        md.update(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                    }
+                }
+            }
+        }
+        return HelmDigests.hex(md.digest());
+    }
+
+    private static void deleteParts(File workDir, String key) throws IOException {
+        File[] parts = workDir.listFiles((dir, name) -> name.startsWith(key + ".part"));
+        if (parts != null) {
+            for (File part : parts) {
+                Files.deleteIfExists(part.toPath());
+            }
+        }
+    }
+
+    /** A byte range of the archive and the part file holding it; {@code end} is -1 when the length is unknown. */
+    private static final class Segment {
+        final File file;
+        final long start;
+        final long end;
+
+        Segment(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+
+        /** The byte ranges of the part files, e.g. {@code 0-99,100-199}, which a resumed download must share. */
+        static String ranges(List<Segment> segments) {
+            StringBuilder b = new StringBuilder();
+            for (Segment segment : segments) {
+                if (b.length() > 0) {
+                    b.append(',');
+                }
+                b.append(segment.start).append('-').append(segment.end);
+            }
+            return b.toString();
+        }
+    }
+
+    /**
+     * What the server told us about the archive; persisted with the segment ranges so a resumed download can detect
+     * changed content, or part files cut for a different parallelism or segment size.
+     */
+    private static final class Probe {
+        final long length;
+        final boolean acceptsRanges;
+        final String etag;
+        final String lastModified;
+
+        Probe(long length, boolean acceptsRanges, String etag, String lastModified) {
+            this.length = length;
+            this.acceptsRanges = acceptsRanges;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        boolean matches(File metaFile, String ranges) throws IOException {
+            if (!acceptsRanges || !metaFile.isFile()) {
+                return false;
+            }
+            Properties p = new Properties();
+            try (InputStream in = Files.newInputStream(metaFile.toPath())) {
+                p.load(in);
+            }
+            return Long.toString(length).equals(p.getProperty("length"))
+                    && String.valueOf(etag).equals(p.getProperty("etag"))
+                    && String.valueOf(lastModified).equals(p.getProperty("lastModified"))
+                    && ranges.equals(p.getProperty("ranges"));
+        }
+
+        void store(File metaFile, String ranges) throws IOException {
+            Properties p = new Properties();
+            p.setProperty("length", Long.toString(length));
+            p.setProperty("etag", String.valueOf(etag));
+            p.setProperty("lastModified", String.valueOf(lastModified));
+            p.setProperty("ranges", ranges);
+            try (OutputStream out = Files.newOutputStream(metaFile.toPath())) {
+                p.store(out, null);
+            }
+        }
+    }
+}
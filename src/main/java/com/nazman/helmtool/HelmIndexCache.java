@@ -0,0 +1,202 @@
+package com.nazman.helmtool;
+
+import hudson.FilePath;
+import hudson.remoting.RemoteInputStream;
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Controller-side cache of Helm repository indexes. Each index is refreshed with a conditional GET
+ * ({@code If-None-Match}/{@code If-Modified-Since}), stored gzip-compressed under
+ * {@code $JENKINS_HOME/caches/helm-tool/indexes} and pushed to agents, which then need no upstream request of their
+ * own. Agents checking within {@link #RECHECK_INTERVAL_MS} of each other share a single upstream request.
+ */
+final class HelmIndexCache {
+
+    /** Indexes validated more recently than this are served without contacting the repository (milliseconds). */
+    static final long RECHECK_INTERVAL_MS =
+            SystemProperties.getLong(HelmIndexCache.class.getName() + ".recheckIntervalMs", 60_000L);
+
+    private static final int CONNECT_TIMEOUT_MS = 30_000;
+    private static final int READ_TIMEOUT_MS = 60_000;
+
+    private static volatile HelmIndexCache instance;
+
+    private final File root;
+    private final KeyedLock locks = new KeyedLock();
+
+    HelmIndexCache(File root) {
+        this.root = root;
+    }
+
+    static HelmIndexCache get() {
+        HelmIndexCache cache = instance;
+        if (cache == null) {
+            synchronized (HelmIndexCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    cache = new HelmIndexCache(new File(Jenkins.get().getRootDir(), "caches/helm-tool/indexes"));
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /** True for repositories whose index this cache can fetch (plain HTTP(S) repositories). */
+    static boolean supports(String repoUrl) {
+        return repoUrl != null && (repoUrl.startsWith("https://") || repoUrl.startsWith("http://"));
+    }
+
+    /**
+     * Returns the gzip-compressed index of the repository, revalidating it upstream if it was not checked recently.
+     */
+    File fetch(String repoUrl) throws IOException, InterruptedException {
+        String key = HelmDigests.sha256(repoUrl);
+        try (KeyedLock.Held ignored = locks.acquire(key)) {
+            Files.createDirectories(root.toPath());
+            File index = new File(root, key + ".yaml.gz");
+            File metaFile = new File(root, key + ".properties");
+            Properties meta = new Properties();
+            if (metaFile.isFile() && index.isFile()) {
+                try (InputStream in = Files.newInputStream(metaFile.toPath())) {
+                    meta.load(in);
+                }
+                long checked = Long.parseLong(meta.getProperty("checked", "0"));
+                if (System.currentTimeMillis() - checked < RECHECK_INTERVAL_MS) {
+                    return index;
+                }
+            } else {
+                meta.clear();
+            }
+
+            URLConnection conn = indexUrl(repoUrl).toURL().openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            String etag = meta.getProperty("etag");
+            String lastModified = meta.getProperty("lastModified");
+            if (etag != null) {
+                conn.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                conn.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            String newEtag;
+            String newLastModified;
+            try {
+                if (conn instanceof HttpURLConnection http
+                        && http.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    meta.setProperty("checked", Long.toString(System.currentTimeMillis()));
+                    store(meta, metaFile);
+                    return index;
+                }
+                newEtag = conn.getHeaderField("ETag");
+                newLastModified = conn.getHeaderField("Last-Modified");
+                Path tmp = Files.createTempFile(root.toPath(), key, ".tmp");
+                try {
+                    try (InputStream in = conn.getInputStream();
+                            OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                        in.transferTo(out);
+                    }
+                    Files.move(
+                            tmp, index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            } finally {
+                if (conn instanceof HttpURLConnection http) {
+                    http.disconnect();
+                }
+            }
+            meta.clear();
+            setIfPresent(meta, "etag", newEtag);
+            setIfPresent(meta, "lastModified", newLastModified);
+            meta.setProperty("checked", Long.toString(System.currentTimeMillis()));
+            store(meta, metaFile);
+            return index;
+        }
+    }
+
+    /**
+     * Writes the cached index to {@code target} on the node (decompressed there), where Helm reads it as
+     * {@code <name>-index.yaml}.
+     */
+    static void push(File index, FilePath target) throws IOException, InterruptedException {
+        try (InputStream in = Files.newInputStream(index.toPath())) {
+            target.act(new Install(new RemoteInputStream(in, RemoteInputStream.Flag.GREEDY)));
+        }
+    }
+
+    /** {@code <repo>/index.yaml}, keeping any query string, as Helm does. */
+    static URI indexUrl(String repoUrl) throws IOException {
+        try {
+            URI uri = new URI(repoUrl);
+            String path = uri.getPath() != null ? uri.getPath() : "";
+            while (path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            return new URI(uri.getScheme(), uri.getAuthority(), path + "/index.yaml", uri.getQuery(), null);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid repository URL: " + repoUrl, e);
+        }
+    }
+
+    private static void setIfPresent(Properties p, String key, String value) {
+        if (value != null) {
+            p.setProperty(key, value);
+        }
+    }
+
+    private static void store(Properties p, File file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            p.store(out, null);
+        }
+    }
+
+    /** Decompresses an index stream into the target file on the node, replacing it atomically. */
+    private static final class Install extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final InputStream compressed;
+
+        Install(InputStream compressed) {
+            this.compressed = compressed;
+        }
+
+        @Override
+        public Void invoke(File target, VirtualChannel channel) throws IOException {
+            Path dir = target.toPath().toAbsolutePath().getParent();
+            if (dir == null) {
+                throw new IOException("Invalid index path " + target);
+            }
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, target.getName(), ".tmp");
+            try {
+                try (InputStream in = new GZIPInputStream(new BufferedInputStream(compressed, 64 * 1024))) {
+                    Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.nazman.helmtool;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.slaves.AbstractCloudSlave;
+import hudson.slaves.EphemeralNode;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import jenkins.model.Jenkins;
+import jenkins.model.NodeListener;
+import jenkins.util.SystemProperties;
+
+/**
+ * Controller-wide aggregate of {@link HelmTimings}: a duration histogram per phase, node and target and byte counters
+ * per kind and node. Kept in memory since the last restart and exposed in Prometheus text format by
+ * {@link HelmMetricsAction}.
+ *
+ * <p>Label values are kept to a bounded set, since the maps live as long as the controller: only the phases in
+ * {@link #TARGETED_PHASES} keep their target (a repository, download host or installation, all taken from the
+ * configuration), per-build targets such as release names are dropped, and cloud or already removed agents are
+ * counted under {@value #EPHEMERAL_NODE}. Series of a node are removed when the node is deleted, and beyond
+ * {@link #MAX_SERIES} further series are folded into one per phase with {@code node="other"}.
+ */
+final class HelmMetrics {
+
+    /** Upper bounds of the histogram buckets, in seconds. */
+    static final double[] BUCKETS = {0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600};
+
+    /** Phases whose target is a repository, download host or installation name rather than a per-build value. */
+    static final Set<String> TARGETED_PHASES = Set.of("repo.add", "repo.index", "install.fetch", "prewarm");
+
+    /** Node label of cloud agents and agents that no longer exist. */
+    static final String EPHEMERAL_NODE = "ephemeral";
+
+    /** Node label of series beyond {@link #MAX_SERIES}. */
+    static final String OVERFLOW_NODE = "other";
+
+    /** Maximum number of series per metric. */
+    static final int MAX_SERIES = SystemProperties.getInteger(HelmMetrics.class.getName() + ".maxSeries", 1000);
+
+    private static final HelmMetrics INSTANCE = new HelmMetrics();
+
+    private final ConcurrentMap<Key, Histogram> durations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, LongAdder> bytes = new ConcurrentHashMap<>();
+
+    static HelmMetrics get() {
+        return INSTANCE;
+    }
+
+    void observe(String phase, String node, String target, long millis) {
+        Key key = new Key(phase, nodeLabel(node), TARGETED_PHASES.contains(phase) ? target : null);
+        durations.computeIfAbsent(bounded(durations, key), k -> new Histogram()).observe(millis);
+    }
+
+    void addBytes(String kind, String node, long count) {
+        Key key = new Key(kind, nodeLabel(node), null);
+        bytes.computeIfAbsent(bounded(bytes, key), k -> new LongAdder()).add(count);
+    }
+
+    /** Drops the series of a node, e.g. when it is deleted. */
+    void forgetNode(String node) {
+        durations.keySet().removeIf(k -> k.node().equals(node));
+        bytes.keySet().removeIf(k -> k.node().equals(node));
+    }
+
+    /** The key itself while there is room for another series, else the phase's overflow series. */
+    private static Key bounded(Map<Key, ?> series, Key key) {
+        if (series.size() < MAX_SERIES || series.containsKey(key)) {
+            return key;
+        }
+        return new Key(key.name(), OVERFLOW_NODE, null);
+    }
+
+    /**
+     * The node label for a node name: empty for the controller, the name for a permanent agent, and
+     * {@value #EPHEMERAL_NODE} for cloud agents and names that do not (or no longer) exist.
+     */
+    static String nodeLabel(String node) {
+        if (node == null || node.isEmpty()) {
+            return "";
+        }
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        Node n = jenkins != null ? jenkins.getNode(node) : null;
+        if (n == null || n instanceof AbstractCloudSlave || n instanceof EphemeralNode) {
+            return EPHEMERAL_NODE;
+        }
+        return node;
+    }
+
+    /** Writes all series in Prometheus text exposition format, sorted so the output is stable between scrapes. */
+    void writePrometheus(PrintWriter w) {
+        w.println("# HELP helm_tool_phase_duration_seconds Duration of Helm step phases.");
+        w.println("# TYPE helm_tool_phase_duration_seconds histogram");
+        for (Map.Entry<Key, Histogram> e : new TreeMap<>(durations).entrySet()) {
+            String labels = e.getKey().labels("phase");
+            Histogram h = e.getValue();
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += h.buckets[i].sum();
+                w.println("helm_tool_phase_duration_seconds_bucket{" + labels + ",le=\"" + format(BUCKETS[i]) + "\"} "
+                        + cumulative);
+            }
+            long count = h.count.sum();
+            w.println("helm_tool_phase_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} " + count);
+            w.println("helm_tool_phase_duration_seconds_sum{" + labels + "} " + format(h.millis.sum() / 1000.0));
+            w.println("helm_tool_phase_duration_seconds_count{" + labels + "} " + count);
+        }
+        w.println("# HELP helm_tool_bytes_total Bytes transferred by Helm steps and tool installations.");
+        w.println("# TYPE helm_tool_bytes_total counter");
+        for (Map.Entry<Key, LongAdder> e : new TreeMap<>(bytes).entrySet()) {
+            w.println("helm_tool_bytes_total{" + e.getKey().labels("kind") + "} " + e.getValue().sum());
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static final class Histogram {
+        final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+        final LongAdder count = new LongAdder();
+        final LongAdder millis = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void observe(long durationMillis) {
+            double seconds = durationMillis / 1000.0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (seconds <= BUCKETS[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            millis.add(durationMillis);
+        }
+    }
+
+    /** Removes the series of deleted agents. */
+    @Extension
+    public static final class ForgetDeletedNodes extends NodeListener {
+        @Override
+        protected void onDeleted(Node node) {
+            get().forgetNode(node.getNodeName());
+        }
+    }
+
+    private record Key(String name, String node, String target) implements Comparable<Key> {
+        Key {
+            node = Objects.requireNonNullElse(node, "");
+            target = Objects.requireNonNullElse(target, "");
+        }
+
+        String labels(String nameLabel) {
+            StringBuilder b = new StringBuilder();
+            b.append(nameLabel).append("=\"").append(escape(name)).append('"');
+            b.append(",node=\"").append(escape(node)).append('"');
+            if (!target.isEmpty()) {
+                b.append(",target=\"").append(escape(target)).append('"');
+            }
+            return b.toString();
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            int c = name.compareTo(o.name);
+            if (c == 0) {
+                c = node.compareTo(o.node);
+            }
+            return c != 0 ? c : target.compareTo(o.target);
+        }
+
+        private static String escape(String value) {
+            return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.nazman.helmtool;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import java.io.IOException;
+import java.io.PrintWriter;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Serves {@link HelmMetrics} in Prometheus text format at {@code $JENKINS_URL/helm-metrics/}. Restricted to
+ * administrators, since the series name nodes and repositories.
+ */
+@Extension
+public class HelmMetricsAction implements RootAction {
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return "helm-metrics";
+    }
+
+    public void doIndex(StaplerResponse rsp) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        rsp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        PrintWriter writer = rsp.getWriter();
+        HelmMetrics.get().writePrometheus(writer);
+        writer.flush();
+    }
+}
@@ -0,0 +1,160 @@
+package com.nazman.helmtool;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Captures a command's output with bounded memory: the first {@link #HEAD_LINES} lines and the last
+ * {@link #TAIL_BYTES} bytes are kept for the console, and the full output is spooled gzip-compressed to a temporary
+ * file on the controller so it can be archived if the command fails, or {@linkplain #copyTo copied} in full later.
+ * {@link #close()} is left to the launcher and only flushes; {@link #discard()} deletes the spool file.
+ */
+final class HelmOutputCapture extends OutputStream {
+
+    static final int HEAD_LINES = 20;
+    static final int HEAD_BYTES = 8 * 1024;
+    static final int TAIL_BYTES = 16 * 1024;
+
+    private final String name;
+    private final File spool;
+    private final OutputStream gzip;
+
+    private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+    private int headLines;
+    private boolean headFull;
+
+    private final byte[] tail = new byte[TAIL_BYTES];
+    private long tailCount;
+
+    private long total;
+    private boolean closed;
+
+    /** @param name file name of the archived output, without extension */
+    HelmOutputCapture(String name) throws IOException {
+        this.name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        this.spool = Files.createTempFile("helm-output", ".log.gz").toFile();
+        this.gzip = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(spool.toPath())), 8192);
+    }
+
+    /** Artifact path of the full output when archived. */
+    String artifactName() {
+        return "helm-output/" + name + ".log.gz";
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        gzip.write(b, off, len);
+        total += len;
+        int i = off;
+        int end = off + len;
+        while (!headFull && i < end) {
+            byte c = b[i++];
+            head.write(c);
+            if ((c == '\n' && ++headLines >= HEAD_LINES) || head.size() >= HEAD_BYTES) {
+                headFull = true;
+            }
+        }
+        if (i < end) {
+            appendTail(b, i, end - i);
+        }
+    }
+
+    private void appendTail(byte[] b, int off, int len) {
+        if (len >= TAIL_BYTES) {
+            off += len - TAIL_BYTES;
+            tailCount += len - TAIL_BYTES;
+            len = TAIL_BYTES;
+        }
+        int pos = (int) (tailCount % TAIL_BYTES);
+        int first = Math.min(len, TAIL_BYTES - pos);
+        System.arraycopy(b, off, tail, pos, first);
+        System.arraycopy(b, off + first, tail, 0, len - first);
+        tailCount += len;
+    }
+
+    /**
+     * Writes the condensed output: the head, a note on how much was left out, and the tail starting at a line
+     * boundary. Output that fits is written unchanged.
+     */
+    synchronized void summarizeTo(PrintStream console) throws IOException {
+        head.writeTo(console);
+        if (tailCount == 0) {
+            return;
+        }
+        byte[] ordered = new byte[(int) Math.min(tailCount, TAIL_BYTES)];
+        int pos = (int) (tailCount % TAIL_BYTES);
+        if (tailCount <= TAIL_BYTES) {
+            System.arraycopy(tail, 0, ordered, 0, ordered.length);
+        } else {
+            System.arraycopy(tail, pos, ordered, 0, TAIL_BYTES - pos);
+            System.arraycopy(tail, 0, ordered, TAIL_BYTES - pos, pos);
+        }
+        int start = 0;
+        if (tailCount > TAIL_BYTES) {
+            while (start < ordered.length && ordered[start] != '\n') {
+                start++;
+            }
+            start = Math.min(start + 1, ordered.length);
+            long omitted = total - head.size() - (ordered.length - start);
+            console.println("[... " + omitted + " bytes of Helm output omitted ...]");
+        }
+        console.write(ordered, start, ordered.length - start);
+        console.flush();
+    }
+
+    /** Finishes the compressed spool file and returns it; the capture accepts no more output. */
+    synchronized File finish() throws IOException {
+        if (!closed) {
+            closed = true;
+            gzip.close();
+        }
+        return spool;
+    }
+
+    /** Finishes the capture and writes the full output to {@code out}, decompressed. */
+    synchronized void copyTo(OutputStream out) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(finish().toPath()))) {
+            in.transferTo(out);
+        }
+        out.flush();
+    }
+
+    /** Total bytes captured. */
+    synchronized long size() {
+        return total;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            gzip.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /** Releases the spool file. */
+    synchronized void discard() throws IOException {
+        try {
+            finish();
+        } finally {
+            Files.deleteIfExists(spool.toPath());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.nazman.helmtool;
+
+import hudson.FilePath;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Operating system and CPU architecture of a node, named as in Helm's release archives ({@code linux}/{@code darwin}/
+ * {@code windows}, {@code amd64}/{@code arm64}/...). Detected with one remote call per channel and cached until the
+ * agent reconnects.
+ */
+final class HelmPlatform implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ChannelCache<HelmPlatform> CACHE = new ChannelCache<>();
+
+    /** An {@code -<os>-<arch>} pair as it appears in Helm archive names, e.g. {@code helm-v3.17.2-linux-arm64}. */
+    private static final Pattern ARCHIVE_PLATFORM = Pattern.compile(
+            "-(linux|darwin|windows|freebsd)-(amd64|arm64|386|arm|ppc64le|s390x|riscv64)\\b", Pattern.CASE_INSENSITIVE);
+
+    final String os;
+    final String arch;
+
+    HelmPlatform(String os, String arch) {
+        this.os = os;
+        this.arch = arch;
+    }
+
+    /** The node's platform, from the cache or detected on the node. */
+    static HelmPlatform of(Node node) throws IOException, InterruptedException {
+        FilePath rootPath = node.getRootPath();
+        if (rootPath == null) {
+            throw new IOException("Node " + node.getDisplayName() + " is offline; cannot detect its platform");
+        }
+        VirtualChannel channel = rootPath.getChannel();
+        HelmPlatform platform = CACHE.get(channel, "platform");
+        if (platform == null) {
+            platform = channel.call(new Detect());
+            CACHE.put(channel, "platform", platform);
+        }
+        return platform;
+    }
+
+    /** Maps Java's {@code os.name} and {@code os.arch} to Helm's names. */
+    static HelmPlatform from(String osName, String osArch) {
+        String name = osName.toLowerCase(Locale.ROOT);
+        String os;
+        if (name.startsWith("windows")) {
+            os = "windows";
+        } else if (name.startsWith("mac") || name.startsWith("darwin")) {
+            os = "darwin";
+        } else {
+            os = name.replaceAll("[^a-z0-9]", "");
+        }
+        String arch;
+        switch (osArch.toLowerCase(Locale.ROOT)) {
+            case "amd64", "x86_64" -> arch = "amd64";
+            case "aarch64", "arm64" -> arch = "arm64";
+            case "x86", "i386", "i486", "i586", "i686" -> arch = "386";
+            case "ppc64le" -> arch = "ppc64le";
+            case "s390x" -> arch = "s390x";
+            case "riscv64" -> arch = "riscv64";
+            default -> arch = osArch.toLowerCase(Locale.ROOT).startsWith("arm") ? "arm" : osArch;
+        }
+        return new HelmPlatform(os, arch);
+    }
+
+    /** Fills {@code {os}} and {@code {arch}} in a URL template. */
+    String expand(String template) {
+        return template.replace("{os}", os).replace("{arch}", arch);
+    }
+
+    /**
+     * The platform a Helm archive URL is built for, if it names one (e.g. {@code ...-linux-amd64.tar.gz}), else null.
+     */
+    static HelmPlatform ofArchive(String url) {
+        Matcher m = ARCHIVE_PLATFORM.matcher(url);
+        HelmPlatform found = null;
+        while (m.find()) {
+            found = new HelmPlatform(m.group(1).toLowerCase(Locale.ROOT), m.group(2).toLowerCase(Locale.ROOT));
+        }
+        return found;
+    }
+
+    boolean matches(HelmPlatform other) {
+        return os.equals(other.os) && arch.equals(other.arch);
+    }
+
+    @Override
+    public String toString() {
+        return os + "-" + arch;
+    }
+
+    private static final class Detect extends MasterToSlaveCallable<HelmPlatform, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public HelmPlatform call() {
+            return from(System.getProperty("os.name", ""), System.getProperty("os.arch", ""));
+        }
+    }
+}
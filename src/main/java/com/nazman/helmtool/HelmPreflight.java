@@ -0,0 +1,207 @@
+package com.nazman.helmtool;
+
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import jenkins.MasterToSlaveFileCallable;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.Mark;
+import org.yaml.snakeyaml.error.MarkedYAMLException;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.Event;
+
+/**
+ * Checks a step's inputs before Helm is installed or run: repository names and URLs on the controller, then in one
+ * call on the agent that the values files exist and are well-formed YAML and that a local chart exists. Values files
+ * are parsed as an event stream, so no object tree is built however large they are. All problems are reported
+ * together.
+ */
+final class HelmPreflight {
+
+    private final List<String> problems = new ArrayList<>();
+    private final List<String> valuesFiles = new ArrayList<>();
+    private final List<String> charts = new ArrayList<>();
+
+    /** Adds values files to check; blank entries and URLs (which Helm downloads itself) are ignored. */
+    HelmPreflight valuesFiles(List<String> files) {
+        if (files != null) {
+            for (String file : files) {
+                String trimmed = Util.fixEmptyAndTrim(file);
+                if (trimmed != null && !trimmed.contains("://")) {
+                    valuesFiles.add(trimmed);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Adds a chart to check if it is clearly a local path: relative with {@code ./} or {@code ../}, absolute, or an
+     * archive. A chart such as {@code repo/chart} may name a repository registered earlier, so it is only checked if
+     * it exists in the workspace.
+     */
+    HelmPreflight chart(String chartPath) {
+        String trimmed = Util.fixEmptyAndTrim(chartPath);
+        if (trimmed == null) {
+            problems.add("Chart path is empty");
+        } else if (!trimmed.contains("://")) {
+            charts.add(trimmed);
+        }
+        return this;
+    }
+
+    HelmPreflight repositories(List<HelmTool.Repository> repositories) {
+        if (repositories == null) {
+            return this;
+        }
+        Map<String, String> urls = new HashMap<>();
+        for (HelmTool.Repository repo : repositories) {
+            String name = Util.fixEmptyAndTrim(repo.getName());
+            String url = Util.fixEmptyAndTrim(repo.getUrl());
+            if (name == null) {
+                problems.add("Repository with URL " + url + " has no name");
+                continue;
+            }
+            String problem = checkUrl(url);
+            if (problem != null) {
+                problems.add("Repository " + name + ": " + problem);
+            }
+            String previous = urls.putIfAbsent(name, url);
+            if (previous != null && !previous.equals(url)) {
+                problems.add("Repository " + name + " is configured with two URLs: " + previous + " and " + url);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * A problem with a repository URL for {@code helm repo add}, or null if it is fine. Any scheme is accepted, since
+     * Helm plugins add their own (such as {@code s3://} or {@code gs://}); only {@code http(s)} URLs must name a host.
+     */
+    static String checkUrl(String url) {
+        if (url == null) {
+            return "URL is empty";
+        }
+        try {
+            URI uri = new URI(url);
+            if (uri.getScheme() == null) {
+                return "URL " + url + " has no scheme such as https://";
+            }
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            if (("http".equals(scheme) || "https".equals(scheme)) && uri.getHost() == null) {
+                return "URL " + url + " has no host";
+            }
+            return null;
+        } catch (URISyntaxException e) {
+            return "invalid URL " + url + ": " + e.getMessage();
+        }
+    }
+
+    /**
+     * Runs the checks.
+     *
+     * @throws AbortException listing every problem found
+     */
+    void check(FilePath workspace) throws IOException, InterruptedException {
+        List<String> all = new ArrayList<>(problems);
+        if (!valuesFiles.isEmpty() || !charts.isEmpty()) {
+            all.addAll(workspace.act(new CheckFiles(valuesFiles, charts)));
+        }
+        if (!all.isEmpty()) {
+            StringBuilder message = new StringBuilder("Pre-flight check failed:");
+            for (String problem : all) {
+                message.append(System.lineSeparator()).append("  - ").append(problem);
+            }
+            throw new AbortException(message.toString());
+        }
+    }
+
+    /** Checks values files and charts on the agent; returns the problems found. */
+    private static final class CheckFiles extends MasterToSlaveFileCallable<ArrayList<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<String> valuesFiles;
+        private final ArrayList<String> charts;
+
+        CheckFiles(List<String> valuesFiles, List<String> charts) {
+            this.valuesFiles = new ArrayList<>(valuesFiles);
+            this.charts = new ArrayList<>(charts);
+        }
+
+        @Override
+        public ArrayList<String> invoke(File workspace, VirtualChannel channel) throws IOException {
+            ArrayList<String> problems = new ArrayList<>();
+            for (String path : valuesFiles) {
+                File file = resolve(workspace, path);
+                if (!file.isFile()) {
+                    problems.add("Values file " + path + " not found in " + workspace);
+                    continue;
+                }
+                String problem = parse(file);
+                if (problem != null) {
+                    problems.add("Values file " + path + " is not valid YAML: " + problem);
+                }
+            }
+            for (String path : charts) {
+                File chart = resolve(workspace, path);
+                if (chart.isDirectory()) {
+                    if (!new File(chart, "Chart.yaml").isFile()) {
+                        problems.add("Chart directory " + path + " has no Chart.yaml");
+                    }
+                } else if (!chart.isFile() && looksLocal(path)) {
+                    problems.add("Chart " + path + " not found in " + workspace);
+                }
+            }
+            return problems;
+        }
+
+        private static File resolve(File workspace, String path) {
+            File file = new File(path);
+            return file.isAbsolute() ? file : new File(workspace, path);
+        }
+
+        private static boolean looksLocal(String path) {
+            return path.startsWith("./")
+                    || path.startsWith("../")
+                    || path.endsWith(".tgz")
+                    || new File(path).isAbsolute();
+        }
+
+        /** Streams the file through the YAML parser; returns the first syntax error, or null. */
+        private static String parse(File file) throws IOException {
+            LoaderOptions options = new LoaderOptions();
+            options.setCodePointLimit(Integer.MAX_VALUE);
+            try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                for (Event ignored : new Yaml(options).parse(reader)) {
+                    // Syntax errors are thrown while iterating
+                }
+                return null;
+            } catch (CharacterCodingException e) {
+                return "not UTF-8 encoded";
+            } catch (MarkedYAMLException e) {
+                Mark mark = e.getProblemMark();
+                return mark == null
+                        ? e.getMessage()
+                        : e.getProblem() + " at line " + (mark.getLine() + 1) + ", column " + (mark.getColumn() + 1);
+            } catch (YAMLException e) {
+                // The parser wraps errors of the reader, such as a decoding failure
+                return e.getCause() instanceof CharacterCodingException ? "not UTF-8 encoded" : e.getMessage();
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.nazman.helmtool;
+
+import hudson.Util;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Identifies a release in a cluster: its name plus the namespace, kube context and kubeconfig given in the step's
+ * additional arguments. Two steps deploy the same release exactly when their {@linkplain #key() keys} are equal.
+ */
+final class HelmReleaseTarget implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    final String releaseName;
+    final String namespace;
+    final String kubeContext;
+    final String kubeconfig;
+
+    HelmReleaseTarget(String releaseName, String namespace, String kubeContext, String kubeconfig) {
+        this.releaseName = releaseName;
+        this.namespace = namespace;
+        this.kubeContext = kubeContext;
+        this.kubeconfig = kubeconfig;
+    }
+
+    /** Parses {@code -n/--namespace}, {@code --kube-context} and {@code --kubeconfig} out of the arguments. */
+    static HelmReleaseTarget of(String releaseName, String additionalArgs) {
+        String namespace = null;
+        String kubeContext = null;
+        String kubeconfig = null;
+        String[] args = additionalArgs != null ? Util.tokenize(additionalArgs) : new String[0];
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            String next = i + 1 < args.length ? args[i + 1] : null;
+            if (arg.equals("-n") || arg.equals("--namespace")) {
+                namespace = next;
+                i++;
+            } else if (arg.startsWith("--namespace=")) {
+                namespace = arg.substring("--namespace=".length());
+            } else if (arg.equals("--kube-context")) {
+                kubeContext = next;
+                i++;
+            } else if (arg.startsWith("--kube-context=")) {
+                kubeContext = arg.substring("--kube-context=".length());
+            } else if (arg.equals("--kubeconfig")) {
+                kubeconfig = next;
+                i++;
+            } else if (arg.startsWith("--kubeconfig=")) {
+                kubeconfig = arg.substring("--kubeconfig=".length());
+            }
+        }
+        return new HelmReleaseTarget(releaseName, namespace, kubeContext, kubeconfig);
+    }
+
+    /** Arguments selecting the same cluster and namespace for other Helm commands, e.g. {@code helm status}. */
+    List<String> scopeArgs() {
+        List<String> result = new ArrayList<>();
+        if (namespace != null) {
+            result.add("--namespace");
+            result.add(namespace);
+        }
+        if (kubeContext != null) {
+            result.add("--kube-context");
+            result.add(kubeContext);
+        }
+        if (kubeconfig != null) {
+            result.add("--kubeconfig");
+            result.add(kubeconfig);
+        }
+        return result;
+    }
+
+    /** Stable key for this target, suitable for maps and (hashed) file names. */
+    String key() {
+        return releaseName + "\n" + Util.fixNull(namespace) + "\n" + Util.fixNull(kubeContext) + "\n"
+                + Util.fixNull(kubeconfig);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder(releaseName);
+        if (namespace != null) {
+            b.append(" in namespace ").append(namespace);
+        }
+        if (kubeContext != null) {
+            b.append(" (context ").append(kubeContext).append(')');
+        }
+        return b.toString();
+    }
+}
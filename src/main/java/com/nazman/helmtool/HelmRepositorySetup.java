@@ -0,0 +1,486 @@
+package com.nazman.helmtool;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import jenkins.MasterToSlaveFileCallable;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+
+/**
+ * Registers the configured repositories and refreshes their indexes, skipping the work that is already done on the
+ * node: a repository found in Helm's {@code repositories.yaml} with the same URL is not added again, and only indexes
+ * older than the TTL are refreshed. Repositories used by the plugin are remembered in a small state file in Helm's
+ * repository cache directory; index freshness is the modification time of Helm's own {@code <name>-index.yaml}.
+ */
+final class HelmRepositorySetup {
+
+    /** Default index TTL (minutes) when the step does not configure one. */
+    static final int DEFAULT_TTL_MINUTES = 10;
+
+    /** State file in Helm's repository cache directory: repository name to URL. */
+    static final String STATE_FILE = ".jenkins-helm-tool-repositories.properties";
+
+    private final Launcher launcher;
+    private final FilePath workspace;
+    private final TaskListener listener;
+    private final String helmPath;
+    private final EnvVars env;
+    private final int concurrency;
+    private boolean controllerIndexCache;
+    private HelmTimings timings;
+    private HelmSession output;
+
+    /**
+     * @param concurrency how many repositories may be registered at the same time; 1 registers them one by one
+     */
+    HelmRepositorySetup(
+            Launcher launcher,
+            FilePath workspace,
+            TaskListener listener,
+            String helmPath,
+            EnvVars env,
+            int concurrency) {
+        this.launcher = launcher;
+        this.workspace = workspace;
+        this.listener = listener;
+        this.helmPath = helmPath;
+        this.env = env;
+        this.concurrency = concurrency;
+    }
+
+    /** Writes {@code helm repo update} output per the session's {@link HelmTool.LogMode}. */
+    HelmRepositorySetup withOutput(HelmSession session) {
+        this.output = session;
+        return this;
+    }
+
+    /** Serves stale indexes from the controller-side {@link HelmIndexCache} when enabled. */
+    HelmRepositorySetup withControllerIndexCache(boolean controllerIndexCache) {
+        this.controllerIndexCache = controllerIndexCache;
+        return this;
+    }
+
+    /** Records per-repository phases ({@code repo.add}, {@code repo.index}, {@code repo.update}). */
+    HelmRepositorySetup withTimings(HelmTimings timings) {
+        this.timings = timings;
+        return this;
+    }
+
+    /**
+     * @param repositories the repositories to make available
+     * @param ttlMinutes   indexes younger than this are not refreshed; 0 always refreshes
+     */
+    void run(List<HelmTool.Repository> repositories, int ttlMinutes) throws IOException, InterruptedException {
+        Map<String, String> wanted = new LinkedHashMap<>();
+        for (HelmTool.Repository repo : repositories) {
+            // Validate URL before using it
+            if (!repo.isValidUrl()) {
+                listener.getLogger()
+                        .println("Warning: Invalid URL for repository " + repo.getName() + ": " + repo.getUrl());
+                continue;
+            }
+            wanted.put(repo.getName(), repo.getUrl());
+        }
+        if (wanted.isEmpty()) {
+            return;
+        }
+
+        Plan plan = workspace.act(new Check(wanted, TimeUnit.MINUTES.toMillis(ttlMinutes), helmEnv(env)));
+        for (String name : wanted.keySet()) {
+            if (!plan.toAdd.contains(name) && !plan.toUpdate.contains(name)) {
+                listener.getLogger().println("Repository " + name + " is up to date, skipping");
+            }
+        }
+
+        Map<String, String> added = new LinkedHashMap<>(plan.adopted);
+        List<HelmCommand> commands = new ArrayList<>();
+        for (String name : plan.toAdd) {
+            commands.add(HelmCommand.of(helmPath, "repo", "add").add(name).add(wanted.get(name)));
+        }
+        int[] exitCodes = launchAll(commands, plan.toAdd, "Adding repository: ");
+        for (int i = 0; i < plan.toAdd.size(); i++) {
+            String name = plan.toAdd.get(i);
+            if (exitCodes[i] != 0) {
+                listener.getLogger()
+                        .println("Failed to add repository " + name + " with exit code: " + exitCodes[i]);
+            } else {
+                added.put(name, wanted.get(name));
+            }
+        }
+
+        // helm repo add fetches the index itself, so only stale repositories that were already registered need it.
+        // A single 'helm repo update' downloads the selected indexes concurrently.
+        List<String> toUpdate = plan.toUpdate;
+        if (controllerIndexCache && !toUpdate.isEmpty()) {
+            toUpdate = pushCachedIndexes(toUpdate, wanted, plan.repositoryCache);
+        }
+        if (!toUpdate.isEmpty()) {
+            updateIndexes(toUpdate);
+        }
+
+        if (!added.isEmpty()) {
+            workspace.act(new Record(plan.stateFile, added));
+        }
+    }
+
+    /**
+     * Refreshes indexes from the controller-side {@link HelmIndexCache} instead of letting every node download them.
+     *
+     * @return the repositories that still need {@code helm repo update}
+     */
+    private List<String> pushCachedIndexes(List<String> names, Map<String, String> urls, String repositoryCache)
+            throws InterruptedException {
+        List<String> remaining = new ArrayList<>();
+        for (String name : names) {
+            String url = urls.get(name);
+            if (!HelmIndexCache.supports(url)) {
+                remaining.add(name);
+                continue;
+            }
+            try (HelmTimings.Phase ignored = phase("repo.index", name)) {
+                File index = HelmIndexCache.get().fetch(url);
+                FilePath target = new FilePath(workspace.getChannel(), repositoryCache).child(name + "-index.yaml");
+                HelmIndexCache.push(index, target);
+                if (timings != null) {
+                    timings.addBytes("index-copy", index.length());
+                }
+                listener.getLogger().println("Refreshed index of repository " + name + " from the controller cache");
+            } catch (IOException e) {
+                listener.getLogger()
+                        .println("Could not refresh index of repository " + name + " from the controller cache: "
+                                + e.getMessage());
+                remaining.add(name);
+            }
+        }
+        return remaining;
+    }
+
+    private void updateIndexes(List<String> names) throws IOException, InterruptedException {
+        try (HelmTimings.Phase ignored = phase("repo.update", null)) {
+            doUpdateIndexes(names);
+        }
+    }
+
+    private void doUpdateIndexes(List<String> names) throws IOException, InterruptedException {
+        listener.getLogger().println("Updating Helm repositories: " + String.join(", ", names));
+        HelmCommand update = HelmCommand.of(helmPath, "repo", "update");
+        for (String name : names) {
+            update.add(name);
+        }
+        int repoUpdateExitCode = launchUpdate(update);
+        if (repoUpdateExitCode != 0) {
+            // Helm before 3.7 cannot update selected repositories; refresh all of them instead
+            listener.getLogger().println("Updating all Helm repositories...");
+            repoUpdateExitCode = launchUpdate(HelmCommand.of(helmPath, "repo", "update"));
+        }
+        if (repoUpdateExitCode != 0) {
+            listener.getLogger().println("Failed to update repositories with exit code: " + repoUpdateExitCode);
+        }
+    }
+
+    private int launchUpdate(HelmCommand update) throws IOException, InterruptedException {
+        HelmSession.Launch body = out -> launcher.launch()
+                .cmds(update.toArgumentList())
+                .stdout(out)
+                .stderr(out)
+                .pwd(workspace)
+                .start()
+                .join();
+        if (output == null) {
+            return body.run(listener.getLogger());
+        }
+        return output.captured("repo-update", listener.getLogger(), body);
+    }
+
+    /**
+     * Runs the commands, at most {@link #concurrency} at a time. Output of each command is captured separately and
+     * written to the console in command order, so concurrent runs do not interleave.
+     *
+     * @return the exit code of each command
+     */
+    private int[] launchAll(List<HelmCommand> commands, List<String> names, String label)
+            throws IOException, InterruptedException {
+        int[] exitCodes = new int[commands.size()];
+        if (concurrency <= 1 || commands.size() <= 1) {
+            for (int i = 0; i < commands.size(); i++) {
+                listener.getLogger().println(label + commands.get(i));
+                try (HelmTimings.Phase ignored = phase("repo.add", names.get(i))) {
+                    exitCodes[i] = launcher.launch()
+                            .cmds(commands.get(i).toArgumentList())
+                            .stdout(listener.getLogger())
+                            .stderr(listener.getLogger())
+                            .pwd(workspace)
+                            .start()
+                            .join();
+                }
+            }
+            return exitCodes;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(concurrency, commands.size()),
+                new NamingThreadFactory(new DaemonThreadFactory(), "HelmRepositorySetup"));
+        try {
+            List<ByteArrayOutputStream> outputs = new ArrayList<>();
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < commands.size(); i++) {
+                HelmCommand command = commands.get(i);
+                String name = names.get(i);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                outputs.add(out);
+                results.add(pool.submit(() -> {
+                    try (HelmTimings.Phase ignored = phase("repo.add", name)) {
+                        return launcher.launch()
+                                .cmds(command.toArgumentList())
+                                .stdout(out)
+                                .stderr(out)
+                                .pwd(workspace)
+                                .start()
+                                .join();
+                    }
+                }));
+            }
+            for (int i = 0; i < commands.size(); i++) {
+                listener.getLogger().println(label + commands.get(i));
+                try {
+                    exitCodes[i] = results.get(i).get();
+                } catch (ExecutionException e) {
+                    listener.getLogger().println(e.getCause());
+                    exitCodes[i] = -1;
+                }
+                outputs.get(i).writeTo(listener.getLogger());
+            }
+            return exitCodes;
+        } finally {
+            // Interrupts (and thereby kills) anything still running if the build was aborted
+            pool.shutdownNow();
+        }
+    }
+
+    /** Times a phase if timings are recorded; the returned handle is null otherwise (try-with-resources allows it). */
+    private HelmTimings.Phase phase(String name, String target) {
+        return timings != null ? timings.phase(name, target) : null;
+    }
+
+    /** Build variables that move Helm's directories; resolved on the node together with its own environment. */
+    static Map<String, String> helmEnv(EnvVars env) {
+        Map<String, String> result = new HashMap<>();
+        for (String key : HelmPaths.VARIABLES) {
+            String value = env.get(key);
+            if (value != null && !value.isEmpty()) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Repositories to add (unknown or URL changed) and to refresh (index missing or older than the TTL), and those
+     * found registered with the wanted URL but not yet in the state file.
+     */
+    static final class Plan implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final List<String> toAdd = new ArrayList<>();
+        final List<String> toUpdate = new ArrayList<>();
+        final Map<String, String> adopted = new LinkedHashMap<>();
+        String stateFile;
+        String repositoryCache;
+    }
+
+    /**
+     * Helm's repository config and cache locations on the node, following Helm's own lookup rules. Each variable is
+     * taken from the build first, then from the node's environment, so a build that sets its own {@code HOME} finds
+     * the same directories as the Helm it runs; without {@code HOME} the JVM's {@code user.home} is used.
+     */
+    static final class HelmPaths {
+        static final String[] VARIABLES = {
+            "HELM_REPOSITORY_CONFIG", "HELM_REPOSITORY_CACHE", "HELM_CACHE_HOME", "HELM_CONFIG_HOME",
+            "XDG_CACHE_HOME", "XDG_CONFIG_HOME", "HOME"
+        };
+
+        final File repositoryConfig;
+        final File repositoryCache;
+
+        HelmPaths(Map<String, String> overrides) {
+            String home = firstOf(overrides, "HOME", null, System.getProperty("user.home"));
+            boolean mac = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("mac");
+            String cacheHome = firstOf(
+                    overrides,
+                    "HELM_CACHE_HOME",
+                    subdir(lookup(overrides, "XDG_CACHE_HOME"), "helm"),
+                    mac ? home + "/Library/Caches/helm" : home + "/.cache/helm");
+            String configHome = firstOf(
+                    overrides,
+                    "HELM_CONFIG_HOME",
+                    subdir(lookup(overrides, "XDG_CONFIG_HOME"), "helm"),
+                    mac ? home + "/Library/Preferences/helm" : home + "/.config/helm");
+            repositoryConfig =
+                    new File(firstOf(overrides, "HELM_REPOSITORY_CONFIG", null, configHome + "/repositories.yaml"));
+            repositoryCache = new File(firstOf(overrides, "HELM_REPOSITORY_CACHE", null, cacheHome + "/repository"));
+        }
+
+        private static String lookup(Map<String, String> overrides, String key) {
+            String value = overrides.get(key);
+            return value != null ? value : System.getenv(key);
+        }
+
+        private static String subdir(String dir, String name) {
+            return dir != null && !dir.isEmpty() ? dir + "/" + name : null;
+        }
+
+        private static String firstOf(Map<String, String> overrides, String key, String derived, String fallback) {
+            String value = lookup(overrides, key);
+            if (value != null && !value.isEmpty()) {
+                return value;
+            }
+            return derived != null ? derived : fallback;
+        }
+    }
+
+    /** Compares the wanted repositories with what is registered and cached on the node. */
+    static final class Check extends MasterToSlaveFileCallable<Plan> {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, String> wanted;
+        private final long ttlMillis;
+        private final Map<String, String> helmEnv;
+
+        Check(Map<String, String> wanted, long ttlMillis, Map<String, String> helmEnv) {
+            this.wanted = new LinkedHashMap<>(wanted);
+            this.ttlMillis = ttlMillis;
+            this.helmEnv = helmEnv;
+        }
+
+        @Override
+        public Plan invoke(File f, VirtualChannel channel) throws IOException {
+            HelmPaths paths = new HelmPaths(helmEnv);
+            Plan plan = new Plan();
+            File stateFile = new File(paths.repositoryCache, STATE_FILE);
+            plan.stateFile = stateFile.getAbsolutePath();
+            plan.repositoryCache = paths.repositoryCache.getAbsolutePath();
+            Properties state = load(stateFile);
+            Map<String, String> configured = configuredUrls(paths.repositoryConfig);
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, String> e : wanted.entrySet()) {
+                String name = e.getKey();
+                String url = e.getValue();
+                // Registered with the same URL, whether by this plugin or otherwise: helm repo add would be a no-op
+                if (!sameUrl(url, configured.get(name))) {
+                    plan.toAdd.add(name);
+                    continue;
+                }
+                if (!url.equals(state.getProperty(name))) {
+                    plan.adopted.put(name, url);
+                }
+                File index = new File(paths.repositoryCache, name + "-index.yaml");
+                if (ttlMillis <= 0 || !index.isFile() || now - index.lastModified() >= ttlMillis) {
+                    plan.toUpdate.add(name);
+                }
+            }
+            return plan;
+        }
+
+        /** Repository names and URLs in Helm's {@code repositories.yaml}; empty if it is missing or unreadable. */
+        static Map<String, String> configuredUrls(File repositoryConfig) throws IOException {
+            Map<String, String> urls = new HashMap<>();
+            if (!repositoryConfig.isFile()) {
+                return urls;
+            }
+            Object root;
+            try (Reader reader = Files.newBufferedReader(repositoryConfig.toPath(), StandardCharsets.UTF_8)) {
+                root = new Yaml(new SafeConstructor(new LoaderOptions())).load(reader);
+            } catch (YAMLException e) {
+                return urls;
+            }
+            if (root instanceof Map<?, ?> map && map.get("repositories") instanceof List<?> entries) {
+                for (Object entry : entries) {
+                    if (entry instanceof Map<?, ?> repo && repo.get("name") != null && repo.get("url") != null) {
+                        urls.put(repo.get("name").toString(), repo.get("url").toString());
+                    }
+                }
+            }
+            return urls;
+        }
+
+        private static boolean sameUrl(String wanted, String configured) {
+            return configured != null && stripSlash(wanted).equals(stripSlash(configured));
+        }
+
+        private static String stripSlash(String url) {
+            return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        }
+    }
+
+    /** Remembers repositories successfully registered on the node. */
+    static final class Record extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String stateFile;
+        private final Map<String, String> added;
+
+        Record(String stateFile, Map<String, String> added) {
+            this.stateFile = stateFile;
+            this.added = new LinkedHashMap<>(added);
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException {
+            Path file = Paths.get(stateFile);
+            Path dir = file.toAbsolutePath().getParent();
+            if (dir == null) {
+                return null;
+            }
+            Files.createDirectories(dir);
+            Properties state = load(file.toFile());
+            state.putAll(added);
+            Path tmp = Files.createTempFile(dir, STATE_FILE, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                state.store(out, "Repositories registered by the Jenkins Helm plugin");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return null;
+        }
+    }
+
+    static Properties load(File file) throws IOException {
+        Properties p = new Properties();
+        if (file.isFile()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                p.load(in);
+            }
+        }
+        return p;
+    }
+}
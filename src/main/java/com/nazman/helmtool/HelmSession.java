@@ -0,0 +1,323 @@
+package com.nazman.helmtool;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.slaves.WorkspaceList;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.util.BuildListenerAdapter;
+
+/**
+ * Helm prepared on the build's node: installation resolved and installed, binary located and version verified.
+ * Created once per step and shared by everything the step runs, so a step deploying several releases pays for the
+ * setup only once.
+ */
+final class HelmSession {
+
+    /** Serializes {@link #archive} per build. */
+    private static final KeyedLock ARCHIVE_LOCKS = new KeyedLock();
+
+    final Run<?, ?> run;
+    final FilePath workspace;
+    final Launcher launcher;
+    final TaskListener listener;
+    final Node node;
+    final EnvVars env;
+    final String helmPath;
+    final HelmTimings timings;
+
+    /** How command output reaches the console; set by the step before launching anything. */
+    HelmTool.LogMode logMode = HelmTool.LogMode.FULL;
+
+    private HelmSession(
+            Run<?, ?> run,
+            FilePath workspace,
+            Launcher launcher,
+            TaskListener listener,
+            Node node,
+            EnvVars env,
+            String helmPath,
+            HelmTimings timings) {
+        this.run = run;
+        this.workspace = workspace;
+        this.launcher = launcher;
+        this.listener = listener;
+        this.node = node;
+        this.env = env;
+        this.helmPath = helmPath;
+        this.timings = timings;
+    }
+
+    /**
+     * Resolves the Helm installation (the first configured one when {@code helmInstallation} is empty), installs it
+     * on the workspace's node if needed and verifies the binary.
+     */
+    static HelmSession open(
+            Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener, String helmInstallation)
+            throws IOException, InterruptedException {
+        HelmTool.DescriptorImpl descriptor = HelmTool.DescriptorImpl.get();
+
+        // Use default (first available) installation when not specified or empty
+        String installationName =
+                (helmInstallation != null && !helmInstallation.trim().isEmpty()) ? helmInstallation.trim() : null;
+        HelmToolInstallation helmTool;
+        if (installationName == null) {
+            helmTool = descriptor.getDefaultInstallation();
+            if (helmTool != null) {
+                listener.getLogger().println("Using default Helm installation: " + helmTool.getName());
+            }
+        } else {
+            listener.getLogger().println("Running Helm command with installation: " + installationName);
+            helmTool = descriptor.getInstallation(installationName);
+        }
+
+        if (helmTool == null) {
+            // List available installations for better error message
+            HelmToolInstallation[] availableInstallations = descriptor.getInstallations();
+            String requestedName =
+                    (helmInstallation != null && !helmInstallation.trim().isEmpty())
+                            ? helmInstallation.trim()
+                            : "(default/empty)";
+            StringBuilder errorMsg = new StringBuilder("Helm installation not found: " + requestedName);
+            if (availableInstallations != null && availableInstallations.length > 0) {
+                errorMsg.append(". Available installations: ");
+                for (int i = 0; i < availableInstallations.length; i++) {
+                    if (i > 0) errorMsg.append(", ");
+                    errorMsg.append(availableInstallations[i].getName());
+                }
+            } else {
+                errorMsg.append(
+                        ". No Helm installations are configured. Please configure at least one Helm installation in Jenkins Global Tool Configuration.");
+            }
+            throw new IOException(errorMsg.toString());
+        }
+
+        // Get the node and ensure Helm is installed
+        Computer computer = workspace.toComputer();
+        Node node = computer != null ? computer.getNode() : null;
+        if (node == null) {
+            throw new IOException("Unable to determine the build node. The node may be offline or disconnected.");
+        }
+
+        HelmTimings timings = new HelmTimings(node.getNodeName());
+
+        // Translate for node - this triggers automatic installation if needed
+        EnvVars env = run.getEnvironment(listener);
+        try (HelmTimings.Phase ignored = timings.phase("install");
+                HelmTimings.Scope bound = timings.bind()) {
+            helmTool = (HelmToolInstallation) helmTool.translate(node, env, listener);
+        }
+
+        String helmPath;
+        try (HelmTimings.Phase ignored = timings.phase("locate")) {
+            helmPath = helmTool.getHelmBinaryPath(node, listener);
+        }
+        listener.getLogger().println("Using Helm binary at: " + helmPath);
+
+        // Verify Helm is runnable and log version before running upgrade --install (memoized per node and binary)
+        String helmVersion;
+        try (HelmTimings.Phase ignored = timings.phase("version")) {
+            helmVersion = HelmVersionProbe.verify(launcher, workspace, node, helmPath, listener);
+        }
+        run.addOrReplaceAction(new HelmVersionAction(helmVersion));
+
+        return new HelmSession(run, workspace, launcher, listener, node, env, helmPath, timings);
+    }
+
+    /**
+     * Recreates a session for a Helm binary set up earlier, for example to finish a deployment after a controller
+     * restart. Nothing is installed or verified again.
+     */
+    static HelmSession resume(
+            Run<?, ?> run,
+            FilePath workspace,
+            Launcher launcher,
+            TaskListener listener,
+            Node node,
+            EnvVars env,
+            String helmPath) {
+        return new HelmSession(
+                run, workspace, launcher, listener, node, env, helmPath, new HelmTimings(node.getNodeName()));
+    }
+
+    /** Registers the repositories and refreshes their indexes as needed. */
+    void setupRepositories(List<HelmTool.Repository> repositories, int ttlMinutes, int concurrency)
+            throws IOException, InterruptedException {
+        if (repositories == null || repositories.isEmpty()) {
+            return;
+        }
+        try (HelmTimings.Phase ignored = timings.phase("repositories")) {
+            new HelmRepositorySetup(launcher, workspace, listener, helmPath, env, concurrency)
+                    .withControllerIndexCache(HelmTool.DescriptorImpl.get().isControllerIndexCache())
+                    .withTimings(timings)
+                    .withOutput(this)
+                    .run(repositories, ttlMinutes);
+        }
+    }
+
+    /**
+     * Returns the chart to deploy: the cached archive on the node for pinned remote charts, else {@code chartPath}.
+     */
+    String resolveCachedChart(
+            String chartPath, String additionalArgs, List<HelmTool.Repository> repositories, TaskListener log)
+            throws IOException, InterruptedException {
+        Map<String, String> repositoryUrls = new HashMap<>();
+        if (repositories != null) {
+            for (HelmTool.Repository repo : repositories) {
+                repositoryUrls.put(repo.getName(), repo.getUrl());
+            }
+        }
+        if (!HelmChartCache.isRemote(chartPath, repositoryUrls.keySet())) {
+            return chartPath;
+        }
+        String version = HelmChartCache.versionOf(additionalArgs);
+        if (version == null) {
+            log.getLogger().println("Chart " + chartPath + " is not cached because no --version is pinned");
+            return chartPath;
+        }
+        String repositoryName = chartPath.startsWith("oci://") ? null : chartPath.substring(0, chartPath.indexOf('/'));
+        try (HelmTimings.Phase ignored = timings.phase("chart-cache", chartPath)) {
+            String cached = HelmChartCache.get()
+                    .resolve(
+                            new HelmChartCache.ChartRef(
+                                    chartPath,
+                                    repositoryName,
+                                    repositoryName != null ? repositoryUrls.get(repositoryName) : null,
+                                    version),
+                            launcher,
+                            node,
+                            helmPath,
+                            workspace,
+                            HelmRepositorySetup.helmEnv(env),
+                            log);
+            return cached != null ? cached : chartPath;
+        }
+    }
+
+    /** Attaches the phases recorded so far to the build. */
+    void attachTimings() {
+        HelmTimingsAction.attach(run, timings);
+    }
+
+    /** A command for this session's Helm binary, e.g. {@code command("repo", "add")}. */
+    HelmCommand command(String... subcommand) {
+        return HelmCommand.of(helmPath, subcommand);
+    }
+
+    /** {@code helm upgrade --install <release> <chart> -f <file>...}; callers append values and arguments. */
+    HelmCommand upgradeCommand(String releaseName, String chart, List<String> valuesFiles) {
+        return command("upgrade", "--install").add(releaseName).add(chart).valuesFiles(valuesFiles);
+    }
+
+    /**
+     * Runs a command, writing the (masked) command line and Helm's output to {@code out}.
+     *
+     * @return Helm's exit code
+     */
+    int launch(HelmCommand command, OutputStream out) throws IOException, InterruptedException {
+        out.write(("Executing: " + command + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        return run(command, out, out);
+    }
+
+    /**
+     * Runs a command in the workspace without echoing it, e.g. {@code helm template} or {@code helm status}.
+     *
+     * @return Helm's exit code
+     */
+    int run(HelmCommand command, OutputStream stdout, OutputStream stderr) throws IOException, InterruptedException {
+        return launcher.launch()
+                .cmds(command.toArgumentList())
+                .stdout(stdout)
+                .stderr(stderr)
+                .pwd(workspace)
+                .quiet(true)
+                .join();
+    }
+
+    /**
+     * Runs a command like {@link #launch}, capturing its output in {@link HelmTool.LogMode#SUMMARY} mode.
+     *
+     * @param name names the archived output if the command fails
+     */
+    int launchCaptured(HelmCommand command, String name, PrintStream console)
+            throws IOException, InterruptedException {
+        return captured(name, console, out -> launch(command, out));
+    }
+
+    /**
+     * Runs {@code body} with an output stream for its process. In {@link HelmTool.LogMode#FULL} mode that is the
+     * console; in {@link HelmTool.LogMode#SUMMARY} mode output is captured, only its start and end are written to the
+     * console, and the full output is archived as a build artifact if the process fails.
+     */
+    int captured(String name, PrintStream console, Launch body) throws IOException, InterruptedException {
+        if (logMode != HelmTool.LogMode.SUMMARY) {
+            return body.run(console);
+        }
+        HelmOutputCapture capture = new HelmOutputCapture(name);
+        boolean failed = true;
+        try {
+            int exitCode = body.run(capture);
+            failed = exitCode != 0;
+            return exitCode;
+        } finally {
+            try {
+                capture.summarizeTo(console);
+                if (failed) {
+                    archive(capture, console);
+                }
+            } finally {
+                capture.discard();
+            }
+        }
+    }
+
+    /**
+     * Archives the full captured output of a failed command as a gzip-compressed build artifact. Artifact managers
+     * are not thread-safe, so concurrent releases of a batch (or parallel branches) archive one at a time per build.
+     */
+    void archive(HelmOutputCapture capture, PrintStream console) throws IOException, InterruptedException {
+        try (KeyedLock.Held ignored = ARCHIVE_LOCKS.acquire(run.getExternalizableId())) {
+            doArchive(capture, console);
+        }
+    }
+
+    private void doArchive(HelmOutputCapture capture, PrintStream console) throws IOException, InterruptedException {
+        File spool = capture.finish();
+        FilePath tmp = WorkspaceList.tempDir(workspace);
+        if (tmp == null) {
+            console.println("Cannot archive the full Helm output: workspace " + workspace + " has no parent");
+            return;
+        }
+        String artifact = capture.artifactName();
+        FilePath copy = tmp.child(artifact);
+        FilePath parent = copy.getParent();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        copy.copyFrom(new FilePath(spool));
+        try {
+            run.pickArtifactManager()
+                    .archive(tmp, launcher, BuildListenerAdapter.wrap(listener), Map.of(artifact, artifact));
+            console.println("Full Helm output (" + capture.size() + " bytes) archived as " + artifact);
+        } finally {
+            copy.delete();
+        }
+    }
+
+    /** A process launch writing to the given stream. */
+    @FunctionalInterface
+    interface Launch {
+        int run(OutputStream out) throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,181 @@
+package com.nazman.helmtool;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import java.util.List;
+import java.util.Set;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Pipeline step {@code helmUpgrade}: takes the same parameters as {@link HelmTool}, but runs
+ * {@code helm upgrade --install} as a durable task, so long upgrades hold no controller thread, continue across
+ * controller restarts and can be aborted. Freestyle jobs keep using the {@link HelmTool} build step.
+ */
+public class HelmStep extends Step {
+
+    private final HelmTool tool;
+
+    @DataBoundConstructor
+    public HelmStep(String releaseName, String chartPath, String helmInstallation, String additionalArgs) {
+        this.tool = new HelmTool(releaseName, chartPath, helmInstallation, additionalArgs);
+    }
+
+    public String getReleaseName() {
+        return tool.getReleaseName();
+    }
+
+    public String getChartPath() {
+        return tool.getChartPath();
+    }
+
+    public String getHelmInstallation() {
+        return tool.getHelmInstallation();
+    }
+
+    public String getAdditionalArgs() {
+        return tool.getAdditionalArgs();
+    }
+
+    @DataBoundSetter
+    public void setValuesFile(String valuesFile) {
+        tool.setValuesFile(valuesFile);
+    }
+
+    public String getValuesFile() {
+        return tool.getValuesFile();
+    }
+
+    @DataBoundSetter
+    public void setValuesFiles(List<String> valuesFiles) {
+        tool.setValuesFiles(valuesFiles);
+    }
+
+    public List<String> getValuesFiles() {
+        return tool.getValuesFiles();
+    }
+
+    @DataBoundSetter
+    public void setValues(List<HelmTool.Value> values) {
+        tool.setValues(values);
+    }
+
+    public List<HelmTool.Value> getValues() {
+        return tool.getValues();
+    }
+
+    @DataBoundSetter
+    public void setRepositories(List<HelmTool.Repository> repositories) {
+        tool.setRepositories(repositories);
+    }
+
+    public List<HelmTool.Repository> getRepositories() {
+        return tool.getRepositories();
+    }
+
+    @DataBoundSetter
+    public void setRepositoryCacheTtlMinutes(int repositoryCacheTtlMinutes) {
+        tool.setRepositoryCacheTtlMinutes(repositoryCacheTtlMinutes);
+    }
+
+    public int getRepositoryCacheTtlMinutes() {
+        return tool.getRepositoryCacheTtlMinutes();
+    }
+
+    @DataBoundSetter
+    public void setRepositoryConcurrency(int repositoryConcurrency) {
+        tool.setRepositoryConcurrency(repositoryConcurrency);
+    }
+
+    public int getRepositoryConcurrency() {
+        return tool.getRepositoryConcurrency();
+    }
+
+    @DataBoundSetter
+    public void setCacheCharts(boolean cacheCharts) {
+        tool.setCacheCharts(cacheCharts);
+    }
+
+    public boolean isCacheCharts() {
+        return tool.isCacheCharts();
+    }
+
+    @DataBoundSetter
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        tool.setSkipUnchanged(skipUnchanged);
+    }
+
+    public boolean isSkipUnchanged() {
+        return tool.isSkipUnchanged();
+    }
+
+    @DataBoundSetter
+    public void setBuildDependencies(boolean buildDependencies) {
+        tool.setBuildDependencies(buildDependencies);
+    }
+
+    public boolean isBuildDependencies() {
+        return tool.isBuildDependencies();
+    }
+
+    @DataBoundSetter
+    public void setCoalesceDeploys(boolean coalesceDeploys) {
+        tool.setCoalesceDeploys(coalesceDeploys);
+    }
+
+    public boolean isCoalesceDeploys() {
+        return tool.isCoalesceDeploys();
+    }
+
+    @DataBoundSetter
+    public void setLogMode(HelmTool.LogMode logMode) {
+        tool.setLogMode(logMode);
+    }
+
+    public HelmTool.LogMode getLogMode() {
+        return tool.getLogMode();
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new HelmStepExecution(context, tool);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "helmUpgrade";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Deploy Helm chart";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, FilePath.class, Launcher.class, TaskListener.class, EnvVars.class);
+        }
+
+        public ListBoxModel doFillHelmInstallationItems() {
+            return HelmTool.DescriptorImpl.get().doFillHelmInstallationItems();
+        }
+
+        public FormValidation doCheckUrl(@QueryParameter String value) {
+            return HelmTool.DescriptorImpl.get().doCheckUrl(value);
+        }
+    }
+}
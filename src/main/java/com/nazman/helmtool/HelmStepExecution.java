@@ -0,0 +1,399 @@
+package com.nazman.helmtool;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.durabletask.BourneShellScript;
+import org.jenkinsci.plugins.durabletask.Controller;
+import org.jenkinsci.plugins.durabletask.DurableTask;
+import org.jenkinsci.plugins.durabletask.WindowsBatchScript;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+
+/**
+ * Runs {@link HelmStep}. Installation, repositories and the chart are set up on a remoting thread, then
+ * {@code helm upgrade} is launched as a durable task and polled with a backoff, so no thread waits on it; with
+ * coalesced deploys, the launch is a callback on the {@link HelmDeployQueue} turn. The task keeps running if the
+ * controller restarts; the execution is serialized with the Pipeline and resumes polling. A restart before the task
+ * was launched runs the setup again. While the agent is offline or its channel fails, polling continues until
+ * {@link #AGENT_TIMEOUT_MILLIS} has passed without contact.
+ */
+final class HelmStepExecution extends StepExecution {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(HelmStepExecution.class.getName());
+
+    static final long MIN_POLL_MILLIS = 1_000;
+    static final long MAX_POLL_MILLIS = 10_000;
+
+    /**
+     * How long the node may be offline, or its channel failing, before the step gives up. Not final so tests can
+     * shorten it.
+     */
+    static long AGENT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(
+            SystemProperties.getLong(HelmStepExecution.class.getName() + ".agentTimeoutMinutes", 5L));
+
+    private final HelmTool tool;
+    private transient Future<?> setup;
+    private transient HelmSession helm;
+    private transient long pollMillis = MIN_POLL_MILLIS;
+    private transient HelmOutputCapture capture;
+    private transient HelmDeployQueue.Ticket ticket;
+    /** When the node was first found unreachable since the last successful poll, or 0. */
+    private transient long unreachableSince;
+
+    private volatile Controller controller;
+    private String nodeName;
+    private String remoteWorkspace;
+    private String helmPath;
+    private String releaseName;
+    private HelmTool.LogMode logMode;
+    private HelmTool.Deployment deployment;
+    private long launchedAt;
+    private volatile boolean done;
+
+    HelmStepExecution(StepContext context, HelmTool tool) {
+        super(context);
+        this.tool = tool;
+    }
+
+    @Override
+    public boolean start() {
+        setup = Computer.threadPoolForRemoting.submit(this::setUp);
+        return false;
+    }
+
+    private void setUp() {
+        try {
+            StepContext context = getContext();
+            Run<?, ?> run = context.get(Run.class);
+            FilePath workspace = context.get(FilePath.class);
+            Launcher launcher = context.get(Launcher.class);
+            TaskListener listener = context.get(TaskListener.class);
+
+            tool.logStep(listener);
+            tool.preflight(workspace);
+            helm = HelmSession.open(run, workspace, launcher, listener, tool.getHelmInstallation());
+            HelmTool.Deployment prepared = tool.prepare(helm);
+            if (prepared == null) {
+                helm.attachTimings();
+                finish(null);
+                return;
+            }
+
+            ticket = tool.requestTurn(helm);
+            if (ticket == null) {
+                launch(prepared);
+            } else {
+                // Another build may be upgrading the release; continue when it is done instead of waiting here.
+                ticket.turn().whenCompleteAsync((t, e) -> onTurn(prepared), Computer.threadPoolForRemoting);
+            }
+        } catch (Throwable t) {
+            failSetUp(t);
+        }
+    }
+
+    private void onTurn(HelmTool.Deployment prepared) {
+        if (done) {
+            return;
+        }
+        try {
+            if (tool.skipSuperseded(helm, ticket)) {
+                helm.attachTimings();
+                finish(null);
+                return;
+            }
+            launch(prepared);
+        } catch (Throwable t) {
+            failSetUp(t);
+        }
+    }
+
+    private void launch(HelmTool.Deployment prepared) throws IOException, InterruptedException {
+        StepContext context = getContext();
+        FilePath workspace = context.get(FilePath.class);
+        Launcher launcher = context.get(Launcher.class);
+        TaskListener listener = context.get(TaskListener.class);
+        EnvVars env = context.get(EnvVars.class);
+
+        boolean windows = !launcher.isUnix();
+        HelmCommand.Script script = prepared.upgrade.toScript(windows);
+        // Echo off: the shell would otherwise print the command with the secret variables expanded.
+        DurableTask task = windows
+                ? new WindowsBatchScript("@echo off\r\n" + script.text())
+                : new BourneShellScript("set +x\n" + script.text());
+        EnvVars taskEnv = new EnvVars(env);
+        taskEnv.putAll(script.env());
+
+        deployment = prepared;
+        nodeName = helm.node.getNodeName();
+        remoteWorkspace = workspace.getRemote();
+        helmPath = helm.helmPath;
+        releaseName = tool.getReleaseName();
+        logMode = helm.logMode;
+        listener.getLogger().println("Executing: " + prepared.upgrade);
+        launchedAt = System.currentTimeMillis();
+        controller = task.launch(taskEnv, workspace, launcher, listener);
+        schedulePoll(MIN_POLL_MILLIS);
+    }
+
+    private void failSetUp(Throwable t) {
+        if (helm != null) {
+            helm.attachTimings();
+        }
+        finish(t);
+    }
+
+    private void schedulePoll(long delayMillis) {
+        if (!done) {
+            Timer.get()
+                    .schedule(
+                            () -> Computer.threadPoolForRemoting.submit(this::poll),
+                            delayMillis,
+                            TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Copies new output to the build log and checks whether the task ended, backing off while it is quiet. */
+    private void poll() {
+        if (done) {
+            return;
+        }
+        try {
+            FilePath workspace = workspace();
+            if (workspace == null) {
+                // Agent offline or not yet reconnected after a restart; the task keeps running there.
+                retryLater(null);
+                return;
+            }
+            TaskListener listener = getContext().get(TaskListener.class);
+            Launcher launcher = getContext().get(Launcher.class);
+            OutputStream sink = sink(listener);
+            boolean wrote;
+            Integer exitCode;
+            try {
+                wrote = controller.writeLog(workspace, sink);
+                exitCode = controller.exitStatus(workspace, launcher, listener);
+            } catch (IOException e) {
+                // Includes a channel closed by a brief disconnect; the task keeps running on the agent.
+                retryLater(e);
+                return;
+            }
+            reachable(listener);
+            if (exitCode == null) {
+                pollMillis = wrote
+                        ? MIN_POLL_MILLIS
+                        : Math.min(MAX_POLL_MILLIS, Math.max(MIN_POLL_MILLIS, pollMillis * 2));
+                schedulePoll(pollMillis);
+                return;
+            }
+            controller.writeLog(workspace, sink);
+            controller.cleanup(workspace);
+            completed(exitCode, workspace, launcher, listener);
+        } catch (Throwable t) {
+            finish(t);
+        }
+    }
+
+    /**
+     * Polls again later while the node is unreachable, or fails the step once it has been for
+     * {@link #AGENT_TIMEOUT_MILLIS}.
+     *
+     * @param cause the failure of the last attempt, or null if the node is offline or gone
+     */
+    private void retryLater(IOException cause) throws IOException, InterruptedException {
+        long now = System.currentTimeMillis();
+        if (unreachableSince == 0) {
+            unreachableSince = now;
+            String reason = cause == null ? "is offline" : "cannot be reached (" + cause + ")";
+            getContext()
+                    .get(TaskListener.class)
+                    .getLogger()
+                    .println("Node " + displayName() + " " + reason + "; waiting for it to come back");
+            LOGGER.log(Level.FINE, "Lost contact with " + nodeName + " while polling helm upgrade", cause);
+        } else if (now - unreachableSince >= AGENT_TIMEOUT_MILLIS) {
+            AbortException e = new AbortException("Node " + displayName() + " was unreachable for "
+                    + TimeUnit.MILLISECONDS.toSeconds(now - unreachableSince)
+                    + " seconds; giving up on helm upgrade for " + releaseName);
+            e.initCause(cause);
+            throw e;
+        }
+        schedulePoll(MAX_POLL_MILLIS);
+    }
+
+    private void reachable(TaskListener listener) {
+        if (unreachableSince != 0) {
+            unreachableSince = 0;
+            listener.getLogger().println("Node " + displayName() + " is back; following helm upgrade again");
+        }
+    }
+
+    private String displayName() {
+        return nodeName.isEmpty() ? "built-in" : nodeName;
+    }
+
+    /** Where the task's output goes: the build log, or a capture in {@link HelmTool.LogMode#SUMMARY} mode. */
+    private OutputStream sink(TaskListener listener) throws IOException {
+        if (logMode != HelmTool.LogMode.SUMMARY) {
+            return listener.getLogger();
+        }
+        if (capture == null) {
+            if (helm == null) {
+                listener.getLogger().println("Jenkins restarted; Helm output before the restart is not in the summary");
+            } else {
+                listener.getLogger().println("Capturing Helm output; a summary follows when helm upgrade ends");
+            }
+            capture = new HelmOutputCapture("upgrade-" + releaseName);
+        }
+        return capture;
+    }
+
+    private void completed(int exitCode, FilePath workspace, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        HelmSession session = helm;
+        if (session == null) {
+            session = HelmSession.resume(
+                    getContext().get(Run.class),
+                    workspace,
+                    launcher,
+                    listener,
+                    node(),
+                    getContext().get(EnvVars.class),
+                    helmPath);
+        }
+        try {
+            session.timings.record("upgrade", releaseName, System.currentTimeMillis() - launchedAt);
+            if (capture != null) {
+                capture.summarizeTo(listener.getLogger());
+                if (exitCode != 0) {
+                    session.archive(capture, listener.getLogger());
+                }
+            }
+            if (exitCode != 0) {
+                throw new IOException("Helm command failed with exit code " + exitCode);
+            }
+            deployment.succeeded(session);
+        } finally {
+            discardCapture();
+            session.attachTimings();
+        }
+        finish(null);
+    }
+
+    private void discardCapture() {
+        HelmOutputCapture c = capture;
+        capture = null;
+        if (c != null) {
+            try {
+                c.discard();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to delete captured Helm output", e);
+            }
+        }
+    }
+
+    private Node node() {
+        Jenkins jenkins = Jenkins.get();
+        return nodeName.isEmpty() ? jenkins : jenkins.getNode(nodeName);
+    }
+
+    /** The workspace on its node, or null if the node is gone or offline. */
+    private FilePath workspace() {
+        Node node = node();
+        return node != null ? node.createPath(remoteWorkspace) : null;
+    }
+
+    private synchronized boolean markDone() {
+        if (done) {
+            return false;
+        }
+        done = true;
+        return true;
+    }
+
+    private void finish(Throwable failure) {
+        if (!markDone()) {
+            return;
+        }
+        HelmDeployQueue.Ticket held = ticket;
+        if (held != null) {
+            held.close();
+        }
+        if (failure == null) {
+            getContext().onSuccess(null);
+        } else {
+            getContext().onFailure(failure);
+        }
+    }
+
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        Future<?> pending = setup;
+        if (pending != null) {
+            pending.cancel(true);
+        }
+        Controller running = controller;
+        if (running != null) {
+            FilePath workspace = workspace();
+            if (workspace != null) {
+                running.stop(workspace, getContext().get(Launcher.class));
+            }
+        }
+        HelmOutputCapture captured = capture;
+        if (captured != null) {
+            captured.summarizeTo(getContext().get(TaskListener.class).getLogger());
+        }
+        discardCapture();
+        finish(cause);
+    }
+
+    @Override
+    public void onResume() {
+        if (done) {
+            return;
+        }
+        if (controller == null) {
+            // Setup was cut short. Installation, repositories and the chart cache are idempotent, so start over.
+            try {
+                TaskListener listener = getContext().get(TaskListener.class);
+                listener.getLogger().println("Jenkins restarted during Helm setup; setting up again");
+            } catch (IOException | InterruptedException e) {
+                LOGGER.log(Level.FINE, "No build log to report the restart to", e);
+            }
+            setup = Computer.threadPoolForRemoting.submit(this::setUp);
+            return;
+        }
+        LOGGER.log(Level.FINE, "Resuming helm upgrade on {0}", nodeName);
+        schedulePoll(MIN_POLL_MILLIS);
+    }
+
+    @Override
+    public String getStatus() {
+        if (done) {
+            return "finished";
+        }
+        if (controller != null) {
+            return "waiting for helm upgrade on " + nodeName;
+        }
+        HelmDeployQueue.Ticket queued = ticket;
+        if (queued != null && !queued.turn().isDone()) {
+            return "waiting for the upgrade by " + queued.blockedBy();
+        }
+        return "setting up Helm";
+    }
+}
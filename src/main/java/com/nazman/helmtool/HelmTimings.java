@@ -0,0 +1,122 @@
+package com.nazman.helmtool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Phase durations and byte counts of one Helm step. Every phase is also reported to {@link HelmMetrics}; when the
+ * step finishes the recorded phases are attached to the build as a {@link HelmTimingsAction}.
+ *
+ * <p>Tool installation runs deep inside {@code ToolInstallation.translate}, so a step {@linkplain #bind() binds} its
+ * recorder to the current thread for the duration of the call and the installer reports to whatever is bound via
+ * {@link #phase(String, String, String)} and {@link #bytes(String, String, long)}.
+ */
+final class HelmTimings {
+
+    private static final ThreadLocal<HelmTimings> CURRENT = new ThreadLocal<>();
+
+    private final String node;
+    private final long started = System.currentTimeMillis();
+    private final List<HelmTimingsAction.Phase> phases = new ArrayList<>();
+    private final List<HelmTimingsAction.Transfer> transfers = new ArrayList<>();
+
+    HelmTimings(String node) {
+        this.node = node;
+    }
+
+    /** Starts timing a phase; close the returned handle when the phase ends. */
+    Phase phase(String name) {
+        return new Phase(this, name, null, node);
+    }
+
+    /**
+     * Starts timing a phase with a target, e.g. a repository name or download host, which becomes a separate
+     * series in the metrics.
+     */
+    Phase phase(String name, String target) {
+        return new Phase(this, name, target, node);
+    }
+
+    void addBytes(String kind, long count) {
+        synchronized (this) {
+            transfers.add(new HelmTimingsAction.Transfer(kind, count));
+        }
+        HelmMetrics.get().addBytes(kind, node, count);
+    }
+
+    /** Records a phase timed elsewhere, e.g. a process that outlived a controller restart. */
+    void record(String name, String target, long millis) {
+        synchronized (this) {
+            phases.add(new HelmTimingsAction.Phase(name, target, millis));
+        }
+        HelmMetrics.get().observe(name, node, target, millis);
+    }
+
+    /** Makes this recorder the one the installer reports to on the current thread, until the scope is closed. */
+    Scope bind() {
+        HelmTimings previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    /**
+     * Times a phase for the recorder bound to this thread, or only for the metrics (under {@code node}) if none is
+     * bound.
+     */
+    static Phase phase(String name, String target, String node) {
+        HelmTimings current = CURRENT.get();
+        return new Phase(current, name, target, current != null ? current.node : node);
+    }
+
+    /** Counts bytes for the recorder bound to this thread, or only for the metrics if none is bound. */
+    static void bytes(String kind, String node, long count) {
+        HelmTimings current = CURRENT.get();
+        if (current != null) {
+            current.addBytes(kind, count);
+        } else {
+            HelmMetrics.get().addBytes(kind, node, count);
+        }
+    }
+
+    synchronized HelmTimingsAction.Step snapshot() {
+        return new HelmTimingsAction.Step(node, started, new ArrayList<>(phases), new ArrayList<>(transfers));
+    }
+
+    /** A running phase. */
+    static final class Phase implements AutoCloseable {
+        private final HelmTimings owner;
+        private final String name;
+        private final String target;
+        private final String node;
+        private final long start = System.nanoTime();
+
+        private Phase(HelmTimings owner, String name, String target, String node) {
+            this.owner = owner;
+            this.name = name;
+            this.target = target;
+            this.node = node;
+        }
+
+        @Override
+        public void close() {
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            if (owner != null) {
+                owner.record(name, target, millis);
+            } else {
+                HelmMetrics.get().observe(name, node, target, millis);
+            }
+        }
+    }
+
+    /** Undoes {@link #bind()}. */
+    interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
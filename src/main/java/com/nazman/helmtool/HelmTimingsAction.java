@@ -0,0 +1,150 @@
+package com.nazman.helmtool;
+
+import hudson.model.Action;
+import hudson.model.Api;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Phase timings of the Helm steps of a build, one {@link Step} per step. Available as JSON at
+ * {@code <build>/helm-timings/api/json} and in the build's own {@code api/json}.
+ */
+@ExportedBean
+public class HelmTimingsAction implements Action {
+
+    private final List<Step> steps = new ArrayList<>();
+
+    /** Adds the timings of a finished step to the build, creating the action on first use. */
+    static void attach(Run<?, ?> run, HelmTimings timings) {
+        HelmTimingsAction action;
+        synchronized (run) {
+            action = run.getAction(HelmTimingsAction.class);
+            if (action == null) {
+                action = new HelmTimingsAction();
+                run.addAction(action);
+            }
+        }
+        action.add(timings.snapshot());
+    }
+
+    private synchronized void add(Step step) {
+        steps.add(step);
+    }
+
+    @Exported
+    public synchronized List<Step> getSteps() {
+        return Collections.unmodifiableList(new ArrayList<>(steps));
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return "helm-timings";
+    }
+
+    /** Timings of one Helm step. */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Step {
+        private final String node;
+        private final long started;
+        private final List<Phase> phases;
+        private final List<Transfer> transfers;
+
+        Step(String node, long started, List<Phase> phases, List<Transfer> transfers) {
+            this.node = node;
+            this.started = started;
+            this.phases = phases;
+            this.transfers = transfers;
+        }
+
+        @Exported
+        public String getNode() {
+            return node;
+        }
+
+        /** Start of the step, in milliseconds since the epoch. */
+        @Exported
+        public long getStarted() {
+            return started;
+        }
+
+        @Exported
+        public List<Phase> getPhases() {
+            return Collections.unmodifiableList(phases);
+        }
+
+        @Exported
+        public List<Transfer> getTransfers() {
+            return Collections.unmodifiableList(transfers);
+        }
+    }
+
+    /** A completed phase, e.g. {@code install}, {@code repositories} or {@code upgrade}. */
+    @ExportedBean(defaultVisibility = 3)
+    public static final class Phase {
+        private final String name;
+        private final String target;
+        private final long millis;
+
+        Phase(String name, String target, long millis) {
+            this.name = name;
+            this.target = target;
+            this.millis = millis;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        /** Repository, release or download host the phase worked on, if any. */
+        @Exported
+        public String getTarget() {
+            return target;
+        }
+
+        @Exported
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    /** Bytes moved by a step, e.g. {@code download} from upstream or {@code agent-copy} to the node. */
+    @ExportedBean(defaultVisibility = 3)
+    public static final class Transfer {
+        private final String kind;
+        private final long bytes;
+
+        Transfer(String kind, long bytes) {
+            this.kind = kind;
+            this.bytes = bytes;
+        }
+
+        @Exported
+        public String getKind() {
+            return kind;
+        }
+
+        @Exported
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -1,13 +1,24 @@
 package com.nazman.helmtool;
 
-import hudson.EnvVars;
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
+import hudson.AbortException;
 import hudson.Extension;
+import hudson.ExtensionList;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
 import hudson.model.AbstractProject;
-import hudson.model.Node;
+import hudson.model.Descriptor;
+import hudson.model.Item;
+import hudson.model.Label;
+import hudson.model.Queue;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.model.queue.Tasks;
+import hudson.security.ACL;
 import hudson.tasks.Builder;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
@@ -16,20 +27,38 @@ import java.io.Serializable;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import jenkins.model.Jenkins;
 import jenkins.tasks.SimpleBuildStep;
+import net.sf.json.JSONObject;
 import org.jenkinsci.Symbol;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
 
-public class HelmTool extends Builder implements SimpleBuildStep {
+public class HelmTool extends Builder implements SimpleBuildStep, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private final String releaseName;
     private final String chartPath;
     private final String helmInstallation;
     private final String additionalArgs;
     private String valuesFile;
+    private List<String> valuesFiles = new ArrayList<>();
+    private List<Value> values = new ArrayList<>();
     private List<Repository> repositories = new ArrayList<>();
+    private Integer repositoryCacheTtlMinutes;
+    private int repositoryConcurrency;
+    private boolean cacheCharts;
+    private boolean skipUnchanged;
+    private LogMode logMode;
+    private boolean buildDependencies;
+    private boolean coalesceDeploys;
 
     @DataBoundConstructor
     public HelmTool(String releaseName, String chartPath, String helmInstallation, String additionalArgs) {
@@ -68,6 +97,26 @@ public class HelmTool extends Builder implements SimpleBuildStep {
         return valuesFile;
     }
 
+    /** Further values files, passed as {@code -f} after {@link #getValuesFile()} in this order. */
+    @DataBoundSetter
+    public void setValuesFiles(List<String> valuesFiles) {
+        this.valuesFiles = valuesFiles;
+    }
+
+    public List<String> getValuesFiles() {
+        return valuesFiles;
+    }
+
+    /** Values passed as {@code --set name=value}; values taken from credentials are masked in the build log. */
+    @DataBoundSetter
+    public void setValues(List<Value> values) {
+        this.values = values;
+    }
+
+    public List<Value> getValues() {
+        return values;
+    }
+
     @DataBoundSetter
     public void setRepositories(List<Repository> repositories) {
         this.repositories = repositories;
@@ -77,6 +126,200 @@ public class HelmTool extends Builder implements SimpleBuildStep {
         return repositories;
     }
 
+    /**
+     * Repository indexes younger than this many minutes are not refreshed, and repositories already registered on
+     * the node with the same URL are not added again. 0 refreshes every index on every run. Defaults to
+     * {@value HelmRepositorySetup#DEFAULT_TTL_MINUTES}.
+     */
+    @DataBoundSetter
+    public void setRepositoryCacheTtlMinutes(int repositoryCacheTtlMinutes) {
+        this.repositoryCacheTtlMinutes = Math.max(0, repositoryCacheTtlMinutes);
+    }
+
+    public int getRepositoryCacheTtlMinutes() {
+        return repositoryCacheTtlMinutes != null ? repositoryCacheTtlMinutes : HelmRepositorySetup.DEFAULT_TTL_MINUTES;
+    }
+
+    /**
+     * How many repositories are registered at the same time. Output is still written per repository, in order.
+     * Values below 2 register repositories one after another.
+     */
+    @DataBoundSetter
+    public void setRepositoryConcurrency(int repositoryConcurrency) {
+        this.repositoryConcurrency = repositoryConcurrency;
+    }
+
+    public int getRepositoryConcurrency() {
+        return Math.max(1, repositoryConcurrency);
+    }
+
+    /**
+     * Pull remote charts ({@code repo/chart} or {@code oci://}) pinned with {@code --version} once into a
+     * content-addressed cache shared by builds and agents, and deploy the cached archive.
+     */
+    @DataBoundSetter
+    public void setCacheCharts(boolean cacheCharts) {
+        this.cacheCharts = cacheCharts;
+    }
+
+    public boolean isCacheCharts() {
+        return cacheCharts;
+    }
+
+    /**
+     * Render the chart with {@code helm template} first and skip the upgrade when the manifests are identical to the
+     * last deploy of this release and the release has not been changed since.
+     */
+    @DataBoundSetter
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    /**
+     * When enabled, {@code charts/} of a local chart is filled by {@code helm dependency build}, restored from a cache
+     * keyed by {@code Chart.yaml} and {@code Chart.lock} when the same dependencies were built before.
+     */
+    @DataBoundSetter
+    public void setBuildDependencies(boolean buildDependencies) {
+        this.buildDependencies = buildDependencies;
+    }
+
+    public boolean isBuildDependencies() {
+        return buildDependencies;
+    }
+
+    /**
+     * When enabled, concurrent builds deploying the same release take turns, and a build still waiting when a newer
+     * one arrives skips its upgrade.
+     */
+    @DataBoundSetter
+    public void setCoalesceDeploys(boolean coalesceDeploys) {
+        this.coalesceDeploys = coalesceDeploys;
+    }
+
+    public boolean isCoalesceDeploys() {
+        return coalesceDeploys;
+    }
+
+    @DataBoundSetter
+    public void setLogMode(LogMode logMode) {
+        this.logMode = logMode == LogMode.FULL ? null : logMode;
+    }
+
+    public LogMode getLogMode() {
+        return logMode != null ? logMode : LogMode.FULL;
+    }
+
+    /** How Helm's output reaches the build log. */
+    public enum LogMode {
+        /** All output is written to the build log as it is produced. */
+        FULL,
+        /**
+         * Output is captured with bounded memory; the build log gets its first lines and its tail, and the full output
+         * is archived gzip-compressed as a build artifact if the command fails.
+         */
+        SUMMARY
+    }
+
+    /**
+     * A single {@code --set} value: either a plain value, or the ID of a secret text credential that is looked up
+     * when the build runs. Secret values are therefore never stored in the job configuration or the Pipeline script;
+     * they are masked in the build log.
+     */
+    public static class Value extends AbstractDescribableImpl<Value> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String value;
+        private String credentialsId;
+
+        @DataBoundConstructor
+        public Value(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /** ID of a secret text credential whose value is passed instead of {@link #getValue()}, or null. */
+        public String getCredentialsId() {
+            return credentialsId;
+        }
+
+        @DataBoundSetter
+        public void setCredentialsId(String credentialsId) {
+            this.credentialsId = Util.fixEmptyAndTrim(credentialsId);
+        }
+
+        public boolean isSecret() {
+            return credentialsId != null;
+        }
+
+        /** The value to pass to Helm; for a secret value, the decrypted credential, which is used for this run. */
+        String resolve(Run<?, ?> run) throws AbortException {
+            if (credentialsId == null) {
+                return value;
+            }
+            StringCredentials credentials =
+                    CredentialsProvider.findCredentialById(credentialsId, StringCredentials.class, run);
+            if (credentials == null) {
+                throw new AbortException(
+                        "Secret text credential " + credentialsId + " for value " + name + " was not found");
+            }
+            CredentialsProvider.track(run, credentials);
+            return credentials.getSecret().getPlainText();
+        }
+
+        @Extension
+        public static final class DescriptorImpl extends Descriptor<Value> {
+
+            @Override
+            public String getDisplayName() {
+                return "Value";
+            }
+
+            public ListBoxModel doFillCredentialsIdItems(
+                    @AncestorInPath Item item, @QueryParameter String credentialsId) {
+                StandardListBoxModel result = new StandardListBoxModel();
+                boolean allowed = item == null
+                        ? Jenkins.get().hasPermission(Jenkins.ADMINISTER)
+                        : item.hasPermission(Item.EXTENDED_READ) || item.hasPermission(CredentialsProvider.USE_ITEM);
+                if (!allowed) {
+                    return result.includeCurrentValue(credentialsId);
+                }
+                return result.includeEmptyValue()
+                        .includeMatchingAs(
+                                item instanceof Queue.Task task ? Tasks.getAuthenticationOf2(task) : ACL.SYSTEM2,
+                                item,
+                                StringCredentials.class,
+                                List.of(),
+                                CredentialsMatchers.always())
+                        .includeCurrentValue(credentialsId);
+            }
+        }
+    }
+
+    /** Splits values into plain and secret {@code --set} maps, looking secret values up for the run. */
+    static void resolveValues(
+            List<Value> values, Run<?, ?> run, Map<String, String> plain, Map<String, String> secret)
+            throws AbortException {
+        if (values != null) {
+            for (Value value : values) {
+                (value.isSecret() ? secret : plain).put(value.getName(), value.resolve(run));
+            }
+        }
+    }
+
     // Вложенный класс для представления репозитория
     public static class Repository implements Serializable {
         private static final long serialVersionUID = 1L;
@@ -125,136 +368,183 @@ public class HelmTool extends Builder implements SimpleBuildStep {
     public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener)
             throws InterruptedException, IOException {
 
-        listener.getLogger().println("Release Name: " + releaseName);
-        listener.getLogger().println("Chart Path: " + chartPath);
-        listener.getLogger().println("Repositories: " + (repositories != null ? repositories.size() : "null"));
+        logStep(listener);
 
-        // Use default (first available) installation when not specified or empty
-        String installationName =
-                (helmInstallation != null && !helmInstallation.trim().isEmpty()) ? helmInstallation.trim() : null;
-        if (installationName == null) {
-            HelmToolInstallation[] available = getDescriptor().getInstallations();
-            if (available != null && available.length > 0) {
-                installationName = available[0].getName();
-                listener.getLogger().println("Using default Helm installation: " + installationName);
+        preflight(workspace);
+        HelmSession helm = HelmSession.open(run, workspace, launcher, listener, helmInstallation);
+        try {
+            Deployment deployment = prepare(helm);
+            if (deployment == null) {
+                return;
             }
-        } else {
-            listener.getLogger().println("Running Helm command with installation: " + installationName);
-        }
-
-        HelmToolInstallation helmTool =
-                installationName != null ? getDescriptor().getInstallation(installationName) : null;
-        if (helmTool == null) {
-            // List available installations for better error message
-            HelmToolInstallation[] availableInstallations = getDescriptor().getInstallations();
-            String requestedName =
-                    (helmInstallation != null && !helmInstallation.trim().isEmpty())
-                            ? helmInstallation.trim()
-                            : "(default/empty)";
-            StringBuilder errorMsg = new StringBuilder("Helm installation not found: " + requestedName);
-            if (availableInstallations != null && availableInstallations.length > 0) {
-                errorMsg.append(". Available installations: ");
-                for (int i = 0; i < availableInstallations.length; i++) {
-                    if (i > 0) errorMsg.append(", ");
-                    errorMsg.append(availableInstallations[i].getName());
+
+            try (HelmDeployQueue.Ticket ticket = awaitTurn(helm)) {
+                if (skipSuperseded(helm, ticket)) {
+                    return;
+                }
+                int exitCode;
+                try (HelmTimings.Phase ignored = helm.timings.phase("upgrade", releaseName)) {
+                    exitCode = helm.launchCaptured(deployment.upgrade, "upgrade-" + releaseName, listener.getLogger());
                 }
-            } else {
-                errorMsg.append(
-                        ". No Helm installations are configured. Please configure at least one Helm installation in Jenkins Global Tool Configuration.");
-            }
-            throw new IOException(errorMsg.toString());
-        }
 
-        // Get the node and ensure Helm is installed
-        Node node = workspace.toComputer().getNode();
-        if (node == null) {
-            throw new IOException("Unable to determine the build node. The node may be offline or disconnected.");
+                if (exitCode != 0) {
+                    throw new IOException("Helm command failed with exit code " + exitCode);
+                }
+                deployment.succeeded(helm);
+            }
+        } finally {
+            helm.attachTimings();
         }
+    }
 
-        // Translate for node - this triggers automatic installation if needed
-        EnvVars env = run.getEnvironment(listener);
-        helmTool = (HelmToolInstallation) helmTool.translate(node, env, listener);
+    void logStep(TaskListener listener) {
+        listener.getLogger().println("Release Name: " + releaseName);
+        listener.getLogger().println("Chart Path: " + chartPath);
+        listener.getLogger().println("Repositories: " + (repositories != null ? repositories.size() : "null"));
+    }
 
-        String helmPath = helmTool.getHelmBinaryPath(node, listener);
-        listener.getLogger().println("Using Helm binary at: " + helmPath);
+    /** Checks values files, a local chart and the repositories before anything is installed or launched. */
+    void preflight(FilePath workspace) throws IOException, InterruptedException {
+        new HelmPreflight()
+                .chart(chartPath)
+                .valuesFiles(allValuesFiles())
+                .repositories(repositories)
+                .check(workspace);
+    }
 
-        // Verify Helm is runnable and log version before running upgrade --install
-        listener.getLogger().println("Checking Helm version...");
-        int versionExit = launcher.launch()
-                .cmds(helmPath, "version")
-                .stdout(listener.getLogger())
-                .stderr(listener.getLogger())
-                .pwd(workspace)
-                .quiet(true)
-                .join();
-        if (versionExit != 0) {
-            throw new IOException("Helm version check failed with exit code " + versionExit
-                    + ". Ensure the Helm binary at " + helmPath + " is executable on this node.");
+    private List<String> allValuesFiles() {
+        List<String> files = new ArrayList<>();
+        files.add(valuesFile);
+        if (valuesFiles != null) {
+            files.addAll(valuesFiles);
         }
+        return files;
+    }
 
+    /**
+     * Sets up repositories and the chart and builds the upgrade command.
+     *
+     * @return the deployment to run, or null if the release is unchanged and the upgrade is skipped
+     */
+    Deployment prepare(HelmSession helm) throws IOException, InterruptedException {
+        helm.logMode = getLogMode();
         // Добавляем репозитории, если они указаны
-        if (repositories != null && !repositories.isEmpty()) {
-            for (Repository repo : repositories) {
-                // Validate URL before using it
-                if (!repo.isValidUrl()) {
-                    listener.getLogger()
-                            .println("Warning: Invalid URL for repository " + repo.getName() + ": " + repo.getUrl());
-                    continue;
-                }
+        helm.setupRepositories(repositories, getRepositoryCacheTtlMinutes(), getRepositoryConcurrency());
 
-                String repoAddCommand = String.format("%s repo add %s %s", helmPath, repo.getName(), repo.getUrl());
-                listener.getLogger().println("Adding repository: " + repoAddCommand);
-                int repoAddExitCode = launcher.launch()
-                        .cmdAsSingleString(repoAddCommand)
-                        .stdout(listener.getLogger())
-                        .stderr(listener.getLogger())
-                        .pwd(workspace)
-                        .start()
-                        .join();
-                if (repoAddExitCode != 0) {
-                    listener.getLogger()
-                            .println("Failed to add repository " + repo.getName() + " with exit code: "
-                                    + repoAddExitCode);
-                }
+        if (buildDependencies) {
+            try (HelmTimings.Phase ignored = helm.timings.phase("dependencies", chartPath)) {
+                HelmDependencyCache.get().restore(helm, chartPath);
             }
+        }
+
+        String chart = chartPath;
+        if (cacheCharts) {
+            chart = helm.resolveCachedChart(chartPath, additionalArgs, repositories, helm.listener);
+        }
 
-            // Обновляем индекс репозиториев
-            listener.getLogger().println("Updating Helm repositories...");
-            int repoUpdateExitCode = launcher.launch()
-                    .cmdAsSingleString(helmPath + " repo update")
-                    .stdout(listener.getLogger())
-                    .stderr(listener.getLogger())
-                    .pwd(workspace)
-                    .start()
-                    .join();
-            if (repoUpdateExitCode != 0) {
-                listener.getLogger().println("Failed to update repositories with exit code: " + repoUpdateExitCode);
+        List<String> files = allValuesFiles();
+        Map<String, String> plain = new TreeMap<>();
+        Map<String, String> secret = new TreeMap<>();
+        resolveValues(values, helm.run, plain, secret);
+        HelmCommand upgrade = helm.upgradeCommand(releaseName, chart, files)
+                .set(plain)
+                .setSecret(secret)
+                .additionalArgs(additionalArgs);
+
+        HelmReleaseTarget target = null;
+        String renderedSha256 = null;
+        if (skipUnchanged) {
+            HelmDeployGate gate = HelmDeployGate.get();
+            target = HelmReleaseTarget.of(releaseName, additionalArgs);
+            try (HelmTimings.Phase ignored = helm.timings.phase("render", releaseName)) {
+                renderedSha256 = gate.render(helm, upgrade);
+            }
+            if (renderedSha256 != null && gate.unchanged(helm, target, renderedSha256)) {
+                helm.listener
+                        .getLogger()
+                        .println("Release " + target + " is unchanged (rendered manifests sha256 " + renderedSha256
+                                + "); skipping helm upgrade");
+                return null;
             }
         }
+        return new Deployment(upgrade, target, renderedSha256);
+    }
 
-        String valuesFileArg = "";
-        if (valuesFile != null && !valuesFile.trim().isEmpty()) {
-            valuesFileArg = "-f " + valuesFile.trim() + " ";
+    /**
+     * With {@link #setCoalesceDeploys(boolean)}, waits until no other build upgrades the release.
+     *
+     * @return the ticket to close after the upgrade, or null if deploys are not coalesced
+     * @see #skipSuperseded(HelmSession, HelmDeployQueue.Ticket)
+     */
+    HelmDeployQueue.Ticket awaitTurn(HelmSession helm) throws InterruptedException {
+        HelmDeployQueue.Ticket ticket = requestTurn(helm);
+        if (ticket != null) {
+            ticket.await();
+        }
+        return ticket;
+    }
+
+    /**
+     * With {@link #setCoalesceDeploys(boolean)}, queues the upgrade of the release without waiting for its turn.
+     *
+     * @return the ticket to close after the upgrade, or null if deploys are not coalesced
+     */
+    HelmDeployQueue.Ticket requestTurn(HelmSession helm) {
+        if (!coalesceDeploys) {
+            return null;
+        }
+        HelmReleaseTarget target = HelmReleaseTarget.of(releaseName, additionalArgs);
+        HelmDeployQueue.Ticket ticket =
+                HelmDeployQueue.get().request(target.key(), HelmDeployQueue.Requester.of(helm.run));
+        if (!ticket.turn().isDone()) {
+            helm.listener
+                    .getLogger()
+                    .println("Waiting for the upgrade of release " + target + " by " + ticket.blockedBy());
+        }
+        return ticket;
+    }
+
+    /**
+     * Checks a ticket whose turn has come. A superseded ticket means a newer build deploys the release instead; the
+     * build is marked with a {@link HelmCoalescedAction}.
+     *
+     * @return whether the upgrade is skipped
+     */
+    boolean skipSuperseded(HelmSession helm, HelmDeployQueue.Ticket ticket) {
+        if (ticket == null || !ticket.isSuperseded()) {
+            return false;
         }
-        String helmCommand = String.format(
-                "%s upgrade --install %s %s %s%s",
-                helmPath,
-                releaseName,
-                chartPath,
-                valuesFileArg,
-                additionalArgs != null ? additionalArgs : "");
+        HelmReleaseTarget target = HelmReleaseTarget.of(releaseName, additionalArgs);
+        String newer = ticket.supersededBy().toString();
+        helm.listener
+                .getLogger()
+                .println("Release " + target + " will be deployed by " + newer + "; skipping this upgrade");
+        helm.run.addAction(new HelmCoalescedAction(releaseName, newer));
+        return true;
+    }
+
+    /**
+     * An upgrade ready to run. Serializable without the command itself, which may hold secret values, so a step can
+     * finish the deployment after a controller restart.
+     */
+    static final class Deployment implements Serializable {
+        private static final long serialVersionUID = 1L;
 
-        listener.getLogger().println("Executing: " + helmCommand);
+        final transient HelmCommand upgrade;
+        private final HelmReleaseTarget target;
+        private final String renderedSha256;
 
-        int exitCode = launcher.launch()
-                .cmdAsSingleString(helmCommand)
-                .stdout(listener.getLogger())
-                .stderr(listener.getLogger())
-                .pwd(workspace)
-                .join();
+        Deployment(HelmCommand upgrade, HelmReleaseTarget target, String renderedSha256) {
+            this.upgrade = upgrade;
+            this.target = target;
+            this.renderedSha256 = renderedSha256;
+        }
 
-        if (exitCode != 0) {
-            throw new IOException("Helm command failed with exit code " + exitCode);
+        /** Records the deployed manifests for {@link #setSkipUnchanged(boolean)} after a successful upgrade. */
+        void succeeded(HelmSession helm) throws IOException, InterruptedException {
+            if (renderedSha256 != null) {
+                HelmDeployGate.get().record(helm, target, renderedSha256);
+            }
         }
     }
 
@@ -267,10 +557,92 @@ public class HelmTool extends Builder implements SimpleBuildStep {
     @Extension
     public static final class DescriptorImpl extends hudson.tasks.BuildStepDescriptor<Builder> {
 
+        private boolean controllerIndexCache;
+        private boolean prewarmAgents;
+        private String prewarmLabel;
+        private int prewarmConcurrency = HelmAgentPrewarmer.DEFAULT_CONCURRENCY;
+        private int prewarmPerMinute = HelmAgentPrewarmer.DEFAULT_PER_MINUTE;
+
         public DescriptorImpl() {
             load();
         }
 
+        static DescriptorImpl get() {
+            return ExtensionList.lookupSingleton(DescriptorImpl.class);
+        }
+
+        /**
+         * When enabled, stale repository indexes are fetched once by the controller (with conditional requests) and
+         * pushed to agents instead of each agent downloading them with {@code helm repo update}.
+         */
+        public boolean isControllerIndexCache() {
+            return controllerIndexCache;
+        }
+
+        @DataBoundSetter
+        public void setControllerIndexCache(boolean controllerIndexCache) {
+            this.controllerIndexCache = controllerIndexCache;
+        }
+
+        /** When enabled, Helm installations are installed on agents as they come online, before builds need them. */
+        public boolean isPrewarmAgents() {
+            return prewarmAgents;
+        }
+
+        @DataBoundSetter
+        public void setPrewarmAgents(boolean prewarmAgents) {
+            this.prewarmAgents = prewarmAgents;
+        }
+
+        /** Label expression restricting which agents are pre-warmed; blank for all. */
+        public String getPrewarmLabel() {
+            return prewarmLabel;
+        }
+
+        @DataBoundSetter
+        public void setPrewarmLabel(String prewarmLabel) {
+            this.prewarmLabel = Util.fixEmptyAndTrim(prewarmLabel);
+        }
+
+        /** How many agents are pre-warmed at the same time. */
+        public int getPrewarmConcurrency() {
+            return prewarmConcurrency > 0 ? prewarmConcurrency : HelmAgentPrewarmer.DEFAULT_CONCURRENCY;
+        }
+
+        @DataBoundSetter
+        public void setPrewarmConcurrency(int prewarmConcurrency) {
+            this.prewarmConcurrency = prewarmConcurrency;
+        }
+
+        /** How many agents may start pre-warming per minute, so a fleet coming online is spread out. */
+        public int getPrewarmPerMinute() {
+            return prewarmPerMinute > 0 ? prewarmPerMinute : HelmAgentPrewarmer.DEFAULT_PER_MINUTE;
+        }
+
+        @DataBoundSetter
+        public void setPrewarmPerMinute(int prewarmPerMinute) {
+            this.prewarmPerMinute = prewarmPerMinute;
+        }
+
+        public FormValidation doCheckPrewarmLabel(@QueryParameter String value) {
+            if (Util.fixEmptyAndTrim(value) == null) {
+                return FormValidation.ok();
+            }
+            try {
+                Label.parseExpression(value);
+                return FormValidation.ok();
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error("Invalid label expression: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+            req.bindJSON(this, json);
+            save();
+            return true;
+        }
+
         @Override
         public boolean isApplicable(Class<? extends AbstractProject> aClass) {
             return true;
@@ -290,18 +662,20 @@ public class HelmTool extends Builder implements SimpleBuildStep {
         }
 
         public HelmToolInstallation getInstallation(String name) {
-            for (HelmToolInstallation inst : getInstallations()) {
-                if (inst.getName().equals(name)) {
-                    return inst;
-                }
-            }
-            return null;
+            return installationDescriptor().getInstallation(name);
+        }
+
+        /** The installation used when a step does not name one (the first configured), or null. */
+        public HelmToolInstallation getDefaultInstallation() {
+            return installationDescriptor().getDefaultInstallation();
         }
 
         public HelmToolInstallation[] getInstallations() {
-            return jenkins.model.Jenkins.get()
-                    .getDescriptorByType(HelmToolInstallation.DescriptorImpl.class)
-                    .getInstallations();
+            return installationDescriptor().getInstallations();
+        }
+
+        private static HelmToolInstallation.DescriptorImpl installationDescriptor() {
+            return ExtensionList.lookupSingleton(HelmToolInstallation.DescriptorImpl.class);
         }
 
         // Add method to create a new Repository instance
@@ -313,12 +687,8 @@ public class HelmTool extends Builder implements SimpleBuildStep {
             if (value == null || value.trim().isEmpty()) {
                 return FormValidation.error("URL cannot be empty");
             }
-            try {
-                URI.create(value);
-                return FormValidation.ok();
-            } catch (IllegalArgumentException e) {
-                return FormValidation.error("Invalid URL format: " + e.getMessage());
-            }
+            String problem = HelmPreflight.checkUrl(value.trim());
+            return problem != null ? FormValidation.error(problem) : FormValidation.ok();
         }
     }
 }
@@ -6,13 +6,17 @@ import hudson.model.Descriptor;
 import hudson.model.Node;
 import hudson.model.PersistentDescriptor;
 import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
 import hudson.slaves.NodeSpecific;
 import hudson.tools.ToolDescriptor;
 import hudson.tools.ToolInstallation;
 import hudson.tools.ToolProperty;
 import hudson.util.FormValidation;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
@@ -20,6 +24,9 @@ import org.kohsuke.stapler.StaplerRequest;
 
 public class HelmToolInstallation extends ToolInstallation implements NodeSpecific<HelmToolInstallation> {
 
+    /** Helm binary path per node channel, keyed by installation name and home. */
+    private static final ChannelCache<String> RESOLVED_PATHS = new ChannelCache<>();
+
     @DataBoundConstructor
     public HelmToolInstallation(String name, String home, List<? extends ToolProperty<?>> properties) {
         super(name, home, properties);
@@ -60,15 +67,23 @@ public class HelmToolInstallation extends ToolInstallation implements NodeSpecif
         if (home == null || home.trim().isEmpty()) {
             throw new IOException("Helm installation home path is not configured.");
         }
+        // Resolved paths are cached per channel, so repeated builds on a node need no remote call
+        VirtualChannel channel = rootPath.getChannel();
+        String cacheKey = getName() + "\n" + home;
+        String cached = RESOLVED_PATHS.get(channel, cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
         // Home from automatic installation is absolute; configured home may be relative to node root
-        FilePath installationDir =
-                isAbsolutePath(home) ? new FilePath(rootPath.getChannel(), home) : new FilePath(rootPath, home);
+        FilePath installationDir = isAbsolutePath(home) ? new FilePath(channel, home) : new FilePath(rootPath, home);
         FilePath helmBinary = installationDir.child("helm");
 
         if (!helmBinary.exists()) {
             // Try common locations for pre-installed Helm (e.g. in container image)
             String found = findHelmInCommonPaths(rootPath, log);
             if (found != null) {
+                RESOLVED_PATHS.put(channel, cacheKey, found);
                 return found;
             }
             String nodeName = node.getDisplayName();
@@ -77,9 +92,21 @@ public class HelmToolInstallation extends ToolInstallation implements NodeSpecif
                     + "'. Please ensure Helm is installed at the specified location on that node.");
         }
 
+        RESOLVED_PATHS.put(channel, cacheKey, helmBinary.getRemote());
         return helmBinary.getRemote();
     }
 
+    /**
+     * Forgets the Helm binary paths resolved on the node, e.g. after a (re)installation or when the cached binary
+     * turned out not to be runnable.
+     */
+    static void invalidateResolvedPaths(Node node) {
+        FilePath rootPath = node.getRootPath();
+        if (rootPath != null) {
+            RESOLVED_PATHS.invalidate(rootPath.getChannel());
+        }
+    }
+
     /**
      * On remote nodes, if the configured path has no binary, check common locations (/usr/bin/helm, /usr/local/bin/helm).
      */
@@ -112,15 +139,61 @@ public class HelmToolInstallation extends ToolInstallation implements NodeSpecif
     @Extension
     public static class DescriptorImpl extends ToolDescriptor<HelmToolInstallation> implements PersistentDescriptor {
 
+        /** Installations by name; rebuilt whenever the installations change, and lazily after loading from disk. */
+        private transient volatile Map<String, HelmToolInstallation> byName;
+
         @Override
         public String getDisplayName() {
             return "Helm";
         }
 
+        @Override
+        public synchronized void setInstallations(HelmToolInstallation... installations) {
+            super.setInstallations(installations);
+            byName = index(installations);
+        }
+
+        /** The installation with this name, or null. */
+        public HelmToolInstallation getInstallation(String name) {
+            return name != null ? byName().get(name) : null;
+        }
+
+        /** The first configured installation, used when a step does not name one; null if there is none. */
+        public HelmToolInstallation getDefaultInstallation() {
+            HelmToolInstallation[] installations = getInstallations();
+            return installations.length > 0 ? installations[0] : null;
+        }
+
+        private Map<String, HelmToolInstallation> byName() {
+            Map<String, HelmToolInstallation> index = byName;
+            if (index == null) {
+                synchronized (this) {
+                    index = byName;
+                    if (index == null) {
+                        index = index(getInstallations());
+                        byName = index;
+                    }
+                }
+            }
+            return index;
+        }
+
+        private static Map<String, HelmToolInstallation> index(HelmToolInstallation[] installations) {
+            Map<String, HelmToolInstallation> index = new HashMap<>();
+            if (installations != null) {
+                for (HelmToolInstallation installation : installations) {
+                    // First definition wins, as with the earlier linear search
+                    index.putIfAbsent(installation.getName(), installation);
+                }
+            }
+            return Collections.unmodifiableMap(index);
+        }
+
         @Override
         public boolean configure(StaplerRequest req, JSONObject json) throws Descriptor.FormException {
             super.configure(req, json);
             save();
+            RESOLVED_PATHS.clear();
             return true;
         }
 
@@ -6,19 +6,33 @@ import hudson.Launcher;
 import hudson.Util;
 import hudson.model.Node;
 import hudson.model.TaskListener;
+import hudson.remoting.RemoteInputStream;
+import hudson.remoting.VirtualChannel;
 import hudson.tools.ToolInstallation;
 import hudson.tools.ToolInstaller;
 import hudson.tools.ToolInstallerDescriptor;
+import hudson.util.FormValidation;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.regex.Pattern;
+import jenkins.MasterToSlaveFileCallable;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 
 public class HelmToolInstaller extends ToolInstaller {
 
     private final String downloadUrl;
+    private String checksum;
+    private String version;
+    private boolean legacyExtraction;
 
     @DataBoundConstructor
     public HelmToolInstaller(String downloadUrl) {
@@ -27,7 +41,8 @@ public class HelmToolInstaller extends ToolInstaller {
     }
 
     /**
-     * Gets the download URL for Helm.
+     * Gets the download URL for Helm. It may be a template with {@code {os}}, {@code {arch}} and {@code {version}}
+     * placeholders, filled in per node.
      *
      * @return The download URL for Helm
      */
@@ -35,21 +50,93 @@ public class HelmToolInstaller extends ToolInstaller {
         return downloadUrl;
     }
 
+    /** Value of {@code {version}} in a URL template, e.g. {@code v3.17.2}. */
+    @DataBoundSetter
+    public void setVersion(String version) {
+        this.version = Util.fixEmptyAndTrim(version);
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /** True if the download URL has placeholders, so each node may download a different archive. */
+    boolean isTemplate() {
+        return downloadUrl != null && PLACEHOLDER.matcher(downloadUrl).find();
+    }
+
+    /**
+     * The archive URL for the node: the template filled in with the node's platform, or the plain URL after checking
+     * that the platform it names (if any) is the node's, so a wrong archive fails before it is downloaded.
+     */
+    String resolveUrl(Node node) throws IOException, InterruptedException {
+        if (!isTemplate()) {
+            HelmPlatform archive = HelmPlatform.ofArchive(downloadUrl);
+            if (archive != null) {
+                HelmPlatform platform = HelmPlatform.of(node);
+                if (!archive.matches(platform)) {
+                    throw new IOException("Helm archive " + downloadUrl + " is built for " + archive + " but node "
+                            + node.getDisplayName() + " is " + platform
+                            + "; use a URL template with {os} and {arch} for mixed platforms");
+                }
+            }
+            return downloadUrl;
+        }
+        String url = HelmPlatform.of(node).expand(downloadUrl);
+        if (url.contains("{version}")) {
+            if (version == null) {
+                throw new IOException("Helm download URL " + downloadUrl + " uses {version} but no version is set");
+            }
+            url = url.replace("{version}", version);
+        }
+        return url;
+    }
+
+    /**
+     * Optional SHA-256 of the archive (hex, optionally prefixed with {@code sha256:}). When set, the download is
+     * verified against it and a cached archive with a different digest is not reused.
+     */
+    @DataBoundSetter
+    public void setChecksum(String checksum) {
+        this.checksum = Util.fixEmptyAndTrim(checksum);
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /** The checksum to verify, which only applies to a single archive, i.e. a URL without placeholders. */
+    private String effectiveChecksum() {
+        return isTemplate() ? null : HelmDigests.normalizeChecksum(checksum);
+    }
+
+    /**
+     * When true, the archive is copied to the node and fully extracted (with {@code tar} on agents) before the binary
+     * is picked out, as in earlier versions. By default only the binary is streamed out of the archive.
+     */
+    @DataBoundSetter
+    public void setLegacyExtraction(boolean legacyExtraction) {
+        this.legacyExtraction = legacyExtraction;
+    }
+
+    public boolean isLegacyExtraction() {
+        return legacyExtraction;
+    }
+
+    /** Placeholders of a download URL template. */
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{(os|arch|version)}");
+
+    /** Serializes installations per node and tool on this controller. */
+    private static final KeyedLock INSTALL_LOCKS = new KeyedLock();
+
     @Override
     public boolean appliesTo(Node node) {
         return true; // apply on all nodes including the Jenkins controller
     }
 
-    /** Connect timeout for Helm download (milliseconds). */
-    private static final int DOWNLOAD_CONNECT_TIMEOUT_MS = 30_000;
-    /** Read timeout for Helm download (milliseconds). */
-    private static final int DOWNLOAD_READ_TIMEOUT_MS = 300_000;
-
     @Override
     public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log)
             throws IOException, InterruptedException {
-        log.getLogger().println("Installing Helm...");
-
         // Use installation directory from tool settings (Helm Home)
         FilePath rootPath = node.getRootPath();
         if (rootPath == null) {
@@ -61,13 +148,52 @@ public class HelmToolInstaller extends ToolInstaller {
         }
         FilePath installationDir =
                 isAbsolutePath(home) ? new FilePath(rootPath.getChannel(), home) : new FilePath(rootPath, home);
+        String safeName = tool.getName().replaceAll("[^a-zA-Z0-9._-]", "_");
+        FilePath fallback = rootPath.child("tools/helm").child(safeName);
+        if (downloadUrl == null || downloadUrl.isEmpty()) {
+            throw new IOException("Download URL is null or empty");
+        }
+        String url = resolveUrl(node);
+        String expectedSha256 = effectiveChecksum();
+        if (isTemplate() && checksum != null) {
+            log.getLogger().println("Ignoring the SHA-256 checksum: it cannot match every archive of " + downloadUrl);
+        }
+
+        // Fast path: a stamped installation of the same URL is already in place (single remote call)
+        InstallationStamp.FindCurrent findCurrent = new InstallationStamp.FindCurrent(
+                List.of(installationDir.getRemote(), fallback.getRemote()), url, expectedSha256);
+        String current = rootPath.act(findCurrent);
+        if (current != null) {
+            log.getLogger().println("Helm is already installed at " + current);
+            return new FilePath(rootPath.getChannel(), current);
+        }
+
+        // Single flight per (node, tool): concurrent builds wait for the running installation and then reuse it
+        String lockKey = node.getNodeName() + "/" + tool.getName();
+        try (KeyedLock.Held ignored = INSTALL_LOCKS.acquire(lockKey)) {
+            current = rootPath.act(findCurrent);
+            if (current != null) {
+                log.getLogger().println("Helm was installed at " + current + " by a concurrent build");
+                return new FilePath(rootPath.getChannel(), current);
+            }
+            return install(node, log, url, installationDir, fallback, expectedSha256);
+        }
+    }
+
+    private FilePath install(
+            Node node,
+            TaskListener log,
+            String url,
+            FilePath installationDir,
+            FilePath fallback,
+            String expectedSha256)
+            throws IOException, InterruptedException {
+        log.getLogger().println("Installing Helm from " + url + "...");
         installationDir.mkdirs();
 
         // On remote agents (e.g. Kubernetes pods), use a path under the workspace so the binary is on the shared
         // volume. Use tool name for a readable path (e.g. .../tools/helm/helm-3.17).
         if (installationDir.isRemote()) {
-            String safeName = tool.getName().replaceAll("[^a-zA-Z0-9._-]", "_");
-            FilePath fallback = rootPath.child("tools/helm").child(safeName);
             if (!fallback.getRemote().equals(installationDir.getRemote())) {
                 log.getLogger()
                         .println("Using " + fallback.getRemote() + " for Helm (works on all containers in the pod).");
@@ -76,8 +202,6 @@ public class HelmToolInstaller extends ToolInstaller {
             }
         } else if (!canWrite(installationDir)) {
             // Controller or single-agent: fallback only if configured path is not writable
-            String safeName = tool.getName().replaceAll("[^a-zA-Z0-9._-]", "_");
-            FilePath fallback = rootPath.child("tools/helm").child(safeName);
             log.getLogger()
                     .println("Helm home " + installationDir.getRemote() + " is not writable; using "
                             + fallback.getRemote() + " for installation.");
@@ -85,27 +209,96 @@ public class HelmToolInstaller extends ToolInstaller {
             installationDir.mkdirs();
         }
 
-        // Download the archive from URL (with timeouts to avoid hanging in containers)
-        FilePath downloaded = installationDir.child(".download/helm.tar.gz");
-        FilePath downloadParent = downloaded.getParent();
-        if (downloadParent != null) {
-            downloadParent.mkdirs();
+        // Drop a stale stamp first so an interrupted installation is never taken for a complete one
+        FilePath staleStamp = installationDir.child(InstallationStamp.FILE_NAME);
+        if (staleStamp.exists()) {
+            staleStamp.delete();
         }
-        if (downloadUrl == null || downloadUrl.isEmpty()) {
-            throw new IOException("Download URL is null or empty");
+
+        String nodeName = node.getNodeName();
+        File archive;
+        try (HelmTimings.Phase ignored = HelmTimings.phase("install.fetch", hostOf(url), nodeName)) {
+            archive = HelmArchiveCache.get().fetch(url, expectedSha256, log);
+        }
+        FilePath targetBinary;
+        try (HelmTimings.Phase ignored = HelmTimings.phase("install.extract", null, nodeName)) {
+            if (legacyExtraction) {
+                targetBinary = extractArchive(installationDir, archive, node, log);
+            } else {
+                // Stream the cached archive to the node and unpack only the helm entry, straight to its final path
+                log.getLogger().println("Extracting Helm binary...");
+                String binaryName;
+                try (InputStream in = Files.newInputStream(archive.toPath())) {
+                    binaryName = installationDir.act(
+                            new StreamingHelmExtractor(new RemoteInputStream(in, RemoteInputStream.Flag.GREEDY)));
+                }
+                targetBinary = installationDir.child(binaryName);
+            }
+        }
+        HelmTimings.bytes("agent-copy", nodeName, archive.length());
+
+        String helmVersion;
+        try (HelmTimings.Phase ignored = HelmTimings.phase("install.probe", null, nodeName)) {
+            helmVersion = probeVersion(targetBinary, installationDir, node, log);
+        }
+        // Cache blobs are named by their SHA-256
+        installationDir.act(
+                new InstallationStamp.Write(url, archive.getName(), targetBinary.getName(), helmVersion));
+
+        HelmToolInstallation.invalidateResolvedPaths(node);
+
+        log.getLogger().println("Helm installed successfully at " + targetBinary.getRemote());
+        return installationDir;
+    }
+
+    /** Host of the download URL, used to tell download sources apart in the metrics. */
+    private static String hostOf(String url) {
+        try {
+            return URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            return null;
         }
-        log.getLogger().println("Downloading Helm from " + downloadUrl + " ...");
+    }
+
+    /**
+     * Runs {@code helm version} once after installation so the version can be recorded in the stamp.
+     *
+     * @return the version (e.g. {@code v3.17.2}), or null if the binary could not report it
+     */
+    private static String probeVersion(FilePath helmBinary, FilePath installationDir, Node node, TaskListener log)
+            throws InterruptedException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            URL url = new java.net.URI(downloadUrl).toURL();
-            URLConnection conn = url.openConnection();
-            conn.setConnectTimeout(DOWNLOAD_CONNECT_TIMEOUT_MS);
-            conn.setReadTimeout(DOWNLOAD_READ_TIMEOUT_MS);
-            try (InputStream in = conn.getInputStream()) {
-                downloaded.copyFrom(in);
+            int exit = node.createLauncher(log)
+                    .launch()
+                    .cmds(helmBinary.getRemote(), "version", "--template", "{{.Version}}")
+                    .stdout(out)
+                    .stderr(log.getLogger())
+                    .pwd(installationDir)
+                    .quiet(true)
+                    .join();
+            if (exit != 0) {
+                return null;
             }
-        } catch (URISyntaxException e) {
-            throw new IOException("Invalid download URL: " + downloadUrl, e);
+        } catch (IOException e) {
+            return null;
+        }
+        String version = out.toString(StandardCharsets.UTF_8).trim();
+        return version.isEmpty() ? null : version;
+    }
+
+    /**
+     * Copies the archive to {@code .download/}, unpacks the whole tree into {@code .extract/} and copies the binary
+     * out of it.
+     */
+    private static FilePath extractArchive(FilePath installationDir, File archive, Node node, TaskListener log)
+            throws IOException, InterruptedException {
+        FilePath downloaded = installationDir.child(".download/helm.tar.gz");
+        FilePath downloadParent = downloaded.getParent();
+        if (downloadParent != null) {
+            downloadParent.mkdirs();
         }
+        downloaded.copyFrom(new FilePath(archive));
 
         // Extract on the agent with tar to avoid streaming the archive over the remoting channel (which can hang in
         // containers)
@@ -127,22 +320,23 @@ public class HelmToolInstaller extends ToolInstaller {
                     "Helm binary not found in archive. Expected 'helm' or 'helm.exe' under a top-level directory.");
         }
 
+        // Copy under a temporary name and rename, so a concurrent reader never sees a partial binary
         FilePath targetBinary = installationDir.child(helmBinary.getName());
-        helmBinary.copyTo(targetBinary);
+        FilePath tmpBinary = installationDir.child(".helm-" + System.nanoTime() + ".tmp");
+        helmBinary.copyTo(tmpBinary);
         extractDir.deleteRecursive();
 
         if (!"helm.exe".equals(helmBinary.getName())) {
-            targetBinary.chmod(0755);
+            tmpBinary.chmod(0755);
         }
-
-        log.getLogger().println("Helm installed successfully at " + targetBinary.getRemote());
-        return installationDir;
+        tmpBinary.act(new AtomicReplace(targetBinary.getRemote()));
+        return targetBinary;
     }
 
     /**
      * Extracts the helm tarball on the agent using tar, so the archive is not streamed over the channel.
      */
-    private void extractWithTar(
+    private static void extractWithTar(
             FilePath installationDir, FilePath extractDir, FilePath downloaded, Node node, TaskListener log)
             throws IOException, InterruptedException {
         Launcher launcher = node.createLauncher(log);
@@ -157,6 +351,27 @@ public class HelmToolInstaller extends ToolInstaller {
         }
     }
 
+    /** Atomically moves the file the callable is invoked on to {@code target}, replacing it. */
+    private static final class AtomicReplace extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String target;
+
+        AtomicReplace(String target) {
+            this.target = target;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException {
+            Files.move(
+                    f.toPath(),
+                    new File(target).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return null;
+        }
+    }
+
     /** Returns true if we can create and delete a file in the given directory (used to detect read-only paths). */
     private static boolean canWrite(FilePath dir) {
         try {
@@ -177,7 +392,7 @@ public class HelmToolInstaller extends ToolInstaller {
     }
 
     /** Finds helm or helm.exe in the extracted directory (may be in a single subdir). */
-    private static FilePath findHelmBinary(FilePath dir) throws IOException, InterruptedException {
+    static FilePath findHelmBinary(FilePath dir) throws IOException, InterruptedException {
         for (FilePath child : dir.list()) {
             String name = child.getName();
             if ("helm".equals(name) || "helm.exe".equals(name)) {
@@ -202,5 +417,28 @@ public class HelmToolInstaller extends ToolInstaller {
         public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
             return toolType == HelmToolInstallation.class;
         }
+
+        public FormValidation doCheckDownloadUrl(@QueryParameter String value, @QueryParameter String version) {
+            String url = Util.fixEmptyAndTrim(value);
+            if (url == null) {
+                return FormValidation.error("Download URL is required");
+            }
+            String unknown = url.replaceAll("\\{(os|arch|version)}", "");
+            if (unknown.contains("{") || unknown.contains("}")) {
+                return FormValidation.error("Only {os}, {arch} and {version} placeholders are supported");
+            }
+            if (url.contains("{version}") && Util.fixEmptyAndTrim(version) == null) {
+                return FormValidation.warning("The URL uses {version}; set the version below");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckChecksum(@QueryParameter String value) {
+            String normalized = HelmDigests.normalizeChecksum(value);
+            if (normalized == null || normalized.matches("[0-9a-f]{64}")) {
+                return FormValidation.ok();
+            }
+            return FormValidation.error("Checksum must be a SHA-256 hex digest (64 characters)");
+        }
     }
 }
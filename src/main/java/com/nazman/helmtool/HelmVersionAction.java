@@ -0,0 +1,27 @@
+package com.nazman.helmtool;
+
+import hudson.EnvVars;
+import hudson.model.EnvironmentContributingAction;
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+/** Exposes the version of the Helm binary used by the build as {@code HELM_VERSION}. */
+public class HelmVersionAction extends InvisibleAction implements EnvironmentContributingAction {
+
+    private final String version;
+
+    public HelmVersionAction(String version) {
+        this.version = version;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public void buildEnvironment(Run<?, ?> run, EnvVars env) {
+        if (version != null && !version.isEmpty()) {
+            env.put("HELM_VERSION", version);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.nazman.helmtool;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Verifies that a Helm binary runs and reports its version. Results are memoized per node channel and binary
+ * (path, size and modification time), so a repeated check costs a single stat instead of a process launch.
+ */
+final class HelmVersionProbe {
+
+    private static final Pattern VERSION = Pattern.compile("Version:\"([^\"]+)\"");
+
+    /** Parsed version per channel, keyed by binary path and fingerprint. */
+    private static final ChannelCache<String> VERSIONS = new ChannelCache<>();
+
+    private HelmVersionProbe() {}
+
+    /**
+     * Returns the version of the Helm binary, running {@code helm version} only if this binary has not been
+     * verified on the node before.
+     *
+     * @throws IOException if the binary cannot be run
+     */
+    static String verify(Launcher launcher, FilePath workspace, Node node, String helmPath, TaskListener listener)
+            throws IOException, InterruptedException {
+        FilePath binary = new FilePath(workspace.getChannel(), helmPath);
+        String fingerprint;
+        try {
+            fingerprint = binary.act(new Fingerprint());
+        } catch (IOException e) {
+            HelmToolInstallation.invalidateResolvedPaths(node);
+            throw e;
+        }
+        String cacheKey = helmPath + "\n" + fingerprint;
+        VirtualChannel channel = workspace.getChannel();
+        String cached = VERSIONS.get(channel, cacheKey);
+        if (cached != null) {
+            listener.getLogger().println("Helm version: " + cached + " (verified earlier on this node)");
+            return cached;
+        }
+
+        listener.getLogger().println("Checking Helm version...");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int versionExit = launcher.launch()
+                .cmds(helmPath, "version")
+                .stdout(out)
+                .stderr(listener.getLogger())
+                .pwd(workspace)
+                .quiet(true)
+                .join();
+        String output = out.toString(StandardCharsets.UTF_8);
+        listener.getLogger().print(output);
+        if (versionExit != 0) {
+            HelmToolInstallation.invalidateResolvedPaths(node);
+            throw new IOException("Helm version check failed with exit code " + versionExit
+                    + ". Ensure the Helm binary at " + helmPath + " is executable on this node.");
+        }
+        String version = parse(output);
+        VERSIONS.put(channel, cacheKey, version);
+        return version;
+    }
+
+    /** Extracts the version from {@code helm version} output, e.g. {@code v3.17.2}. */
+    static String parse(String output) {
+        Matcher m = VERSION.matcher(output);
+        if (m.find()) {
+            return m.group(1);
+        }
+        String trimmed = output.trim();
+        int space = trimmed.indexOf(' ');
+        return space > 0 ? trimmed.substring(0, space) : trimmed;
+    }
+
+    /** Identifies a binary by size and modification time; a replaced binary gets a new fingerprint. */
+    private static final class Fingerprint extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String invoke(File f, VirtualChannel channel) throws IOException {
+            if (!f.isFile()) {
+                throw new IOException("Helm binary not found at " + f);
+            }
+            return f.length() + ":" + f.lastModified();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.nazman.helmtool;
+
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Properties;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Records what was installed into a Helm installation directory, so a later installation of the same URL can return
+ * after a single remote call instead of downloading and extracting again.
+ */
+final class InstallationStamp implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Stamp file name, written next to the binary. */
+    static final String FILE_NAME = ".helm-install.properties";
+
+    final String sourceUrl;
+    final String archiveSha256;
+    final String binaryName;
+    final String binarySha256;
+    final long binarySize;
+    final long binaryModified;
+    final String helmVersion;
+
+    InstallationStamp(
+            String sourceUrl,
+            String archiveSha256,
+            String binaryName,
+            String binarySha256,
+            long binarySize,
+            long binaryModified,
+            String helmVersion) {
+        this.sourceUrl = sourceUrl;
+        this.archiveSha256 = archiveSha256;
+        this.binaryName = binaryName;
+        this.binarySha256 = binarySha256;
+        this.binarySize = binarySize;
+        this.binaryModified = binaryModified;
+        this.helmVersion = helmVersion;
+    }
+
+    /** Reads the stamp in {@code dir}, or returns null if it is missing or unreadable. */
+    static InstallationStamp read(File dir) {
+        File file = new File(dir, FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties p = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            p.load(in);
+            return new InstallationStamp(
+                    p.getProperty("sourceUrl"),
+                    p.getProperty("archiveSha256"),
+                    p.getProperty("binaryName", "helm"),
+                    p.getProperty("binarySha256"),
+                    Long.parseLong(p.getProperty("binarySize", "-1")),
+                    Long.parseLong(p.getProperty("binaryModified", "-1")),
+                    p.getProperty("helmVersion", ""));
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** True if this stamp describes the given source and the recorded binary is still in place, unchanged. */
+    boolean matches(File dir, String downloadUrl, String expectedSha256) {
+        if (sourceUrl == null || !sourceUrl.equals(downloadUrl)) {
+            return false;
+        }
+        if (expectedSha256 != null && !expectedSha256.equals(archiveSha256)) {
+            return false;
+        }
+        File binary = new File(dir, binaryName);
+        return binary.isFile() && binary.length() == binarySize && binary.lastModified() == binaryModified;
+    }
+
+    /**
+     * Finds the first candidate directory holding an up-to-date installation of the URL.
+     * Returns its absolute path, or null when Helm has to be (re)installed.
+     */
+    static final class FindCurrent extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> candidates;
+        private final String downloadUrl;
+        private final String expectedSha256;
+
+        FindCurrent(List<String> candidates, String downloadUrl, String expectedSha256) {
+            this.candidates = candidates;
+            this.downloadUrl = downloadUrl;
+            this.expectedSha256 = expectedSha256;
+        }
+
+        @Override
+        public String invoke(File root, VirtualChannel channel) {
+            for (String candidate : candidates) {
+                File dir = new File(candidate);
+                InstallationStamp stamp = read(dir);
+                if (stamp != null && stamp.matches(dir, downloadUrl, expectedSha256)) {
+                    return dir.getAbsolutePath();
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Hashes the installed binary and writes the stamp next to it (atomically). Invoked on the installation dir. */
+    static final class Write extends MasterToSlaveFileCallable<InstallationStamp> {
+        private static final long serialVersionUID = 1L;
+
+        private final String sourceUrl;
+        private final String archiveSha256;
+        private final String binaryName;
+        private final String helmVersion;
+
+        Write(String sourceUrl, String archiveSha256, String binaryName, String helmVersion) {
+            this.sourceUrl = sourceUrl;
+            this.archiveSha256 = archiveSha256;
+            this.binaryName = binaryName;
+            this.helmVersion = helmVersion;
+        }
+
+        @Override
+        public InstallationStamp invoke(File dir, VirtualChannel channel) throws IOException {
+            File binary = new File(dir, binaryName);
+            MessageDigest md = HelmDigests.newSha256();
+            try (InputStream in = Files.newInputStream(binary.toPath())) {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    md.update(buffer, 0, n);
+                }
+            }
+            InstallationStamp stamp = new InstallationStamp(
+                    sourceUrl,
+                    archiveSha256,
+                    binaryName,
+                    HelmDigests.hex(md.digest()),
+                    binary.length(),
+                    binary.lastModified(),
+                    helmVersion != null ? helmVersion : "");
+
+            Properties p = new Properties();
+            p.setProperty("sourceUrl", stamp.sourceUrl);
+            if (stamp.archiveSha256 != null) {
+                p.setProperty("archiveSha256", stamp.archiveSha256);
+            }
+            p.setProperty("binaryName", stamp.binaryName);
+            p.setProperty("binarySha256", stamp.binarySha256);
+            p.setProperty("binarySize", Long.toString(stamp.binarySize));
+            p.setProperty("binaryModified", Long.toString(stamp.binaryModified));
+            p.setProperty("helmVersion", stamp.helmVersion);
+            File tmp = new File(dir, FILE_NAME + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                p.store(out, "Written by the Jenkins Helm plugin");
+            }
+            Files.move(
+                    tmp.toPath(),
+                    new File(dir, FILE_NAME).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return stamp;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.nazman.helmtool;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Mutual exclusion per string key. Entries are reference counted and removed once no thread holds or waits for
+ * them, so keys derived from ephemeral agents do not accumulate.
+ */
+final class KeyedLock {
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /** Handle returned by {@link #acquire(String)}; closing it releases the lock. */
+    final class Held implements AutoCloseable {
+        private final String key;
+        private final Entry entry;
+
+        private Held(String key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+
+        @Override
+        public void close() {
+            entry.lock.unlock();
+            release(key);
+        }
+    }
+
+    /** Blocks until the lock for {@code key} is held by the current thread. */
+    Held acquire(String key) throws InterruptedException {
+        Entry entry = entries.compute(key, (k, e) -> {
+            Entry result = e != null ? e : new Entry();
+            result.refs++;
+            return result;
+        });
+        try {
+            entry.lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            release(key);
+            throw e;
+        }
+        return new Held(key, entry);
+    }
+
+    private void release(String key) {
+        entries.computeIfPresent(key, (k, e) -> --e.refs == 0 ? null : e);
+    }
+
+    private static final class Entry {
+        final ReentrantLock lock = new ReentrantLock();
+        int refs;
+    }
+}
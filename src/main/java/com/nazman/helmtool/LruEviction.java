@@ -0,0 +1,54 @@
+package com.nazman.helmtool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Size-bounded eviction for the plugin's cache directories, oldest modification time first. Cache hits touch their
+ * entry, so modification time doubles as last access. Has no Jenkins dependencies so it can also run on agents.
+ */
+final class LruEviction {
+
+    private static final Logger LOGGER = Logger.getLogger(LruEviction.class.getName());
+
+    private LruEviction() {}
+
+    /**
+     * Deletes the least recently modified files in {@code dir} until its total size is within {@code maxBytes}.
+     *
+     * @param keep a file that must not be evicted (e.g. the entry just added), may be null
+     * @return the number of bytes reclaimed
+     */
+    static long evict(File dir, long maxBytes, File keep) {
+        File[] files = dir.listFiles(File::isFile);
+        if (files == null) {
+            return 0;
+        }
+        long total = 0;
+        List<File> candidates = new ArrayList<>();
+        for (File f : files) {
+            total += f.length();
+            if (!f.equals(keep)) {
+                candidates.add(f);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(File::lastModified));
+        long reclaimed = 0;
+        for (File f : candidates) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long size = f.length();
+            if (f.delete()) {
+                total -= size;
+                reclaimed += size;
+                LOGGER.log(Level.FINE, "Evicted {0} from Helm cache", f);
+            }
+        }
+        return reclaimed;
+    }
+}
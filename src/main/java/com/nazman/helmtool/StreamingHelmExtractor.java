@@ -0,0 +1,81 @@
+package com.nazman.helmtool;
+
+import hudson.remoting.RemoteInputStream;
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.zip.GZIPInputStream;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * Extracts only the Helm binary from a {@code .tar.gz} stream, in a single pass on the node that owns the
+ * installation directory. Nothing but the binary is written to disk: the archive is never stored and no extraction
+ * tree is created. The binary is written to a temporary name and atomically renamed into place.
+ */
+final class StreamingHelmExtractor extends MasterToSlaveFileCallable<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final InputStream archive;
+
+    /**
+     * @param archive the gzip-compressed tarball, typically a {@link RemoteInputStream} over the controller's cached
+     *                copy
+     */
+    StreamingHelmExtractor(InputStream archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * @return the name of the installed binary ({@code helm} or {@code helm.exe})
+     */
+    @Override
+    public String invoke(File installationDir, VirtualChannel channel) throws IOException {
+        try (TarArchiveInputStream tar =
+                new TarArchiveInputStream(new GZIPInputStream(new BufferedInputStream(archive, 64 * 1024)))) {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                if (!entry.isFile()) {
+                    continue;
+                }
+                String name = entry.getName();
+                String baseName = name.substring(name.lastIndexOf('/') + 1);
+                if (!"helm".equals(baseName) && !"helm.exe".equals(baseName)) {
+                    continue;
+                }
+                Path target = installationDir.toPath().resolve(baseName);
+                Path tmp = Files.createTempFile(installationDir.toPath(), ".helm-", ".tmp");
+                try {
+                    Files.copy(tar, tmp, StandardCopyOption.REPLACE_EXISTING);
+                    if (!"helm.exe".equals(baseName)) {
+                        makeExecutable(tmp);
+                    }
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+                return baseName;
+            }
+        }
+        throw new IOException(
+                "Helm binary not found in archive. Expected 'helm' or 'helm.exe' under a top-level directory.");
+    }
+
+    private static void makeExecutable(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rwxr-xr-x"));
+        } catch (UnsupportedOperationException e) {
+            if (!file.toFile().setExecutable(true, false)) {
+                throw new IOException("Could not make " + file + " executable", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.nazman.helmtool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/** Local fixtures for the benchmarks, generated once per trial so nothing is downloaded. */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {}
+
+    /**
+     * Writes a tarball shaped like a Helm release: {@code linux-amd64/helm} of {@code binaryBytes} random (thus
+     * incompressible) bytes, plus a license and readme.
+     */
+    static Path helmArchive(Path dir, int binaryBytes) throws IOException {
+        Path archive = dir.resolve("helm-fixture-linux-amd64.tar.gz");
+        byte[] binary = new byte[binaryBytes];
+        new Random(42).nextBytes(binary);
+        try (OutputStream file = Files.newOutputStream(archive);
+                TarArchiveOutputStream tar = new TarArchiveOutputStream(new GZIPOutputStream(file))) {
+            addEntry(tar, "linux-amd64/LICENSE", new byte[11 * 1024]);
+            addEntry(tar, "linux-amd64/README.md", new byte[3 * 1024]);
+            addEntry(tar, "linux-amd64/helm", binary);
+        }
+        return archive;
+    }
+
+    private static void addEntry(TarArchiveOutputStream tar, String name, byte[] content) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(content.length);
+        entry.setMode(0755);
+        tar.putArchiveEntry(entry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+    }
+
+    /**
+     * Creates {@code directories} directories of {@code filesPerDirectory} small files each, plus one more directory
+     * holding the Helm binary, so a search typically walks a large part of the tree first.
+     */
+    static Path extractedTree(Path dir, int directories, int filesPerDirectory) throws IOException {
+        Path root = Files.createDirectories(dir.resolve("extracted"));
+        for (int d = 0; d < directories; d++) {
+            Path sub = Files.createDirectories(root.resolve(String.format(Locale.ROOT, "d%05d", d)));
+            for (int f = 0; f < filesPerDirectory; f++) {
+                Files.write(sub.resolve("file-" + f + ".txt"), new byte[] {1});
+            }
+        }
+        Path last = Files.createDirectories(root.resolve(String.format(Locale.ROOT, "d%05d", directories)));
+        Files.write(last.resolve("helm"), new byte[] {1});
+        return root;
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
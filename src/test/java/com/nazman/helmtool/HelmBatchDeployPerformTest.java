@@ -0,0 +1,143 @@
+package com.nazman.helmtool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import hudson.Functions;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Runs {@link HelmBatchDeploy#perform} against a stub {@code helm} script: {@code upgrade} appends
+ * {@code start <release>} and {@code end <release>} to {@code order.log}, prints a few lines and fails if a
+ * {@code fail-<release>} file exists next to the stub.
+ */
+public class HelmBatchDeployPerformTest {
+
+    private static final String STUB = "#!/bin/sh\n"
+            + "dir=$(dirname \"$0\")\n"
+            + "case \"$1\" in\n"
+            + "  version) echo 'version.BuildInfo{Version:\"v3.17.0\"}' ;;\n"
+            + "  upgrade)\n"
+            + "    echo \"start $3\" >> \"$dir/order.log\"\n"
+            + "    for i in 1 2 3; do echo \"deploying $3 ($i)\"; sleep 0.1; done\n"
+            + "    echo \"end $3\" >> \"$dir/order.log\"\n"
+            + "    [ ! -e \"$dir/fail-$3\" ] ;;\n"
+            + "  *) exit 2 ;;\n"
+            + "esac\n";
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File bin;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeFalse("The stub is a shell script", Functions.isWindows());
+        bin = tmp.newFolder("bin");
+        File stub = new File(bin, "helm");
+        Files.writeString(stub.toPath(), STUB, StandardCharsets.UTF_8);
+        assertTrue(stub.setExecutable(true));
+        r.jenkins
+                .getDescriptorByType(HelmToolInstallation.DescriptorImpl.class)
+                .setInstallations(new HelmToolInstallation("stub", bin.getAbsolutePath(), List.of()));
+    }
+
+    private static HelmBatchDeploy.Release release(String name, String dependsOn) {
+        HelmBatchDeploy.Release release = new HelmBatchDeploy.Release(name, "repo/" + name);
+        release.setDependsOn(dependsOn);
+        return release;
+    }
+
+    /** db and cache have no dependencies, api needs db and web needs both api and cache. */
+    private FreeStyleProject project() throws IOException {
+        HelmBatchDeploy batch = new HelmBatchDeploy("stub");
+        batch.setReleases(List.of(
+                release("web", "api, cache"), release("api", "db"), release("db", null), release("cache", null)));
+        batch.setConcurrency(2);
+        FreeStyleProject project = r.createFreeStyleProject();
+        project.getBuildersList().add(batch);
+        return project;
+    }
+
+    private List<String> order() throws IOException {
+        return Files.readAllLines(new File(bin, "order.log").toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void releasesStartAfterTheirDependencies() throws Exception {
+        FreeStyleBuild b = r.buildAndAssertSuccess(project());
+
+        List<String> order = order();
+        assertThat(order.indexOf("end db"), lessThan(order.indexOf("start api")));
+        assertThat(order.indexOf("end api"), lessThan(order.indexOf("start web")));
+        assertThat(order.indexOf("end cache"), lessThan(order.indexOf("start web")));
+        for (String name : List.of("web", "api", "db", "cache")) {
+            assertThat(section(b, name), containsString("deploying " + name + " (1)\n"));
+            assertThat(section(b, name), containsString("deploying " + name + " (3)\n"));
+        }
+    }
+
+    @Test
+    public void failedReleaseSkipsItsDependents() throws Exception {
+        Files.createFile(new File(bin, "fail-api").toPath());
+
+        FreeStyleBuild b = r.buildAndAssertStatus(Result.FAILURE, project());
+
+        assertThat(order(), not(hasItem("start web")));
+        assertTrue(order().contains("end cache"));
+        r.assertLogContains("(api was not deployed)", b);
+        r.assertLogContains("2 of 4 Helm releases were not deployed", b);
+        assertThat(section(b, "api"), containsString("deploying api (3)"));
+    }
+
+    @Test
+    public void outputOfConcurrentReleasesIsNotInterleaved() throws Exception {
+        FreeStyleBuild b = r.buildAndAssertSuccess(project());
+
+        // db and cache run at the same time, but each release's lines are written together under its header
+        for (String name : List.of("db", "cache")) {
+            String section = section(b, name);
+            List<String> others = new ArrayList<>(List.of("web", "api", "db", "cache"));
+            others.remove(name);
+            for (String other : others) {
+                assertThat(section, not(containsString("deploying " + other)));
+            }
+        }
+    }
+
+    /** The console output written under {@code --- <release> ---}, up to the next header or the results table. */
+    private static String section(FreeStyleBuild b, String release) throws IOException {
+        String log = JenkinsRule.getLog(b);
+        int start = log.indexOf("--- " + release + " ---\n");
+        assertTrue("No output section for " + release, start >= 0);
+        int end = log.length();
+        for (String marker : List.of("\n--- ", "\nHelm batch results:")) {
+            int at = log.indexOf(marker, start + 1);
+            if (at >= 0) {
+                end = Math.min(end, at);
+            }
+        }
+        return log.substring(start, end);
+    }
+}
@@ -0,0 +1,87 @@
+package com.nazman.helmtool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/** Checks how {@link HelmBatchDeploy#index(List)} validates the release list. */
+public class HelmBatchDeployTest {
+
+    private static HelmBatchDeploy.Release release(String name, String dependsOn) {
+        HelmBatchDeploy.Release release = new HelmBatchDeploy.Release(name, "./charts/" + name);
+        release.setDependsOn(dependsOn);
+        return release;
+    }
+
+    @Test
+    public void releasesAreIndexedInDeclarationOrder() throws IOException {
+        Map<String, HelmBatchDeploy.Release> byName = HelmBatchDeploy.index(List.of(
+                release("web", "api, cache"), release("api", "db"), release("db", null), release("cache", " ")));
+
+        assertThat(byName.keySet(), contains("web", "api", "db", "cache"));
+        assertEquals(List.of("api", "cache"), byName.get("web").dependencies());
+    }
+
+    @Test
+    public void emptyListIsRejected() {
+        IOException e = assertThrows(IOException.class, () -> HelmBatchDeploy.index(List.of()));
+
+        assertThat(e.getMessage(), containsString("No releases"));
+    }
+
+    @Test
+    public void blankNameIsRejected() {
+        IOException e = assertThrows(IOException.class, () -> HelmBatchDeploy.index(List.of(release(" ", null))));
+
+        assertThat(e.getMessage(), containsString("must not be empty"));
+    }
+
+    @Test
+    public void duplicateNameIsRejected() {
+        IOException e = assertThrows(
+                IOException.class,
+                () -> HelmBatchDeploy.index(List.of(release("web", null), release("api", null), release("web", null))));
+
+        assertEquals("Release web is listed more than once", e.getMessage());
+    }
+
+    @Test
+    public void unknownDependencyIsRejected() {
+        IOException e = assertThrows(
+                IOException.class, () -> HelmBatchDeploy.index(List.of(release("web", "api"), release("db", null))));
+
+        assertEquals("Release web depends on unknown release api", e.getMessage());
+    }
+
+    @Test
+    public void cycleIsRejectedWithTheReleasesItBlocks() {
+        IOException e = assertThrows(
+                IOException.class,
+                () -> HelmBatchDeploy.index(List.of(
+                        release("db", null),
+                        release("web", "api"),
+                        release("api", "worker"),
+                        release("worker", "web, db"),
+                        release("docs", "web"))));
+
+        assertThat(e.getMessage(), containsString("Release dependencies form a cycle"));
+        assertThat(e.getMessage(), containsString("web, api, worker, docs"));
+        assertThat(e.getMessage(), not(containsString("db")));
+    }
+
+    @Test
+    public void selfDependencyIsACycle() {
+        IOException e =
+                assertThrows(IOException.class, () -> HelmBatchDeploy.index(List.of(release("web", "web"))));
+
+        assertEquals("Release dependencies form a cycle: web", e.getMessage());
+    }
+}
@@ -0,0 +1,73 @@
+package com.nazman.helmtool;
+
+import hudson.util.ArgumentListBuilder;
+import hudson.util.QuotedStringTokenizer;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Building the {@code helm upgrade --install} command line as {@link HelmTool#perform} does, against the earlier
+ * {@code String.format} plus re-tokenizing approach of {@code cmdAsSingleString}.
+ */
+@JmhBenchmark
+public class HelmCommandBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Input {
+        final String helmPath = "/var/jenkins/tools/helm/helm-3.17/helm";
+        final String releaseName = "payments-api";
+        final String chart = "oci://registry.example.com/charts/payments-api";
+        final List<String> valuesFiles = List.of("values.yaml", "env/prod values.yaml", "secrets.yaml");
+        final Map<String, String> set = new TreeMap<>(Map.of(
+                "image.tag", "1.42.0",
+                "replicaCount", "3",
+                "ingress.hosts[0].host", "payments.example.com",
+                "resources.limits.memory", "512Mi"));
+        final Map<String, String> secrets = Map.of("db.password", "s3cr3t");
+        final String additionalArgs =
+                "--namespace payments --create-namespace --wait --timeout 10m --version 1.42.0 --atomic";
+    }
+
+    @Benchmark
+    public ArgumentListBuilder helmCommand(Input in) {
+        return HelmCommand.of(in.helmPath, "upgrade", "--install")
+                .add(in.releaseName)
+                .add(in.chart)
+                .valuesFiles(in.valuesFiles)
+                .set(in.set)
+                .setSecret(in.secrets)
+                .additionalArgs(in.additionalArgs)
+                .toArgumentList();
+    }
+
+    @Benchmark
+    public String helmCommandDisplay(Input in) {
+        return HelmCommand.of(in.helmPath, "upgrade", "--install")
+                .add(in.releaseName)
+                .add(in.chart)
+                .valuesFiles(in.valuesFiles)
+                .set(in.set)
+                .setSecret(in.secrets)
+                .additionalArgs(in.additionalArgs)
+                .toString();
+    }
+
+    @Benchmark
+    public String[] formatAndTokenize(Input in) {
+        StringBuilder values = new StringBuilder();
+        for (String file : in.valuesFiles) {
+            values.append("-f ").append(file).append(' ');
+        }
+        for (Map.Entry<String, String> e : in.set.entrySet()) {
+            values.append("--set ").append(e.getKey()).append('=').append(e.getValue()).append(' ');
+        }
+        String command = String.format(
+                "%s upgrade --install %s %s %s%s", in.helmPath, in.releaseName, in.chart, values, in.additionalArgs);
+        return QuotedStringTokenizer.tokenize(command);
+    }
+}
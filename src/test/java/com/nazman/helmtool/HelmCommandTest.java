@@ -0,0 +1,96 @@
+package com.nazman.helmtool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import hudson.util.ArgumentListBuilder;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Test;
+
+public class HelmCommandTest {
+
+    private static HelmCommand upgrade() {
+        return HelmCommand.of("/opt/helm/helm", "upgrade", "--install")
+                .add("web")
+                .add("./chart")
+                .valuesFiles(List.of("values.yaml", " ", "prod values.yaml"))
+                .set(Map.of("replicas", "3", "image.tag", "1.0"))
+                .setSecret(Map.of("db.password", "s3cr3t"))
+                .additionalArgs("--namespace apps --description \"first deploy\"");
+    }
+
+    @Test
+    public void argumentsAreAddedInOrderWithSetSortedByKey() {
+        assertEquals(
+                List.of(
+                        "/opt/helm/helm", "upgrade", "--install", "web", "./chart", "-f", "values.yaml", "-f",
+                        "prod values.yaml", "--set", "image.tag=1.0", "--set", "replicas=3", "--set",
+                        "db.password=s3cr3t", "--namespace", "apps", "--description", "first deploy"),
+                upgrade().toArgumentList().toList());
+    }
+
+    @Test
+    public void secretValuesAreMaskedInTheLogLine() {
+        String line = upgrade().toString();
+
+        assertThat(line, not(containsString("s3cr3t")));
+        assertThat(line, containsString("--set db.password=****"));
+        assertThat(line, containsString("-f \"prod values.yaml\""));
+        assertThat(line, containsString("--description \"first deploy\""));
+    }
+
+    @Test
+    public void secretValuesAreMaskedForTheLauncher() {
+        ArgumentListBuilder args = upgrade().toArgumentList();
+
+        boolean[] mask = args.toMaskArray();
+        List<String> list = args.toList();
+        for (int i = 0; i < list.size(); i++) {
+            assertEquals(list.get(i), list.get(i).equals("db.password=s3cr3t"), mask[i]);
+        }
+    }
+
+    @Test
+    public void secretValuesAreKeptOutOfTheScript() {
+        HelmCommand.Script script = upgrade().toScript(false);
+
+        assertThat(script.text(), not(containsString("s3cr3t")));
+        assertThat(script.text(), containsString("'--set' \"$HELM_TOOL_SECRET_0\""));
+        assertThat(script.text(), containsString("'prod values.yaml'"));
+        assertEquals(Map.of("HELM_TOOL_SECRET_0", "db.password=s3cr3t"), script.env());
+    }
+
+    @Test
+    public void windowsScriptQuotesForCmd() {
+        HelmCommand.Script script = HelmCommand.of("helm", "upgrade")
+                .add("100%")
+                .add("say \"hi\"")
+                .addMasked("token")
+                .toScript(true);
+
+        assertEquals("\"helm\" \"upgrade\" \"100%%\" \"say \"\"hi\"\"\" \"%HELM_TOOL_SECRET_0%\"", script.text());
+    }
+
+    @Test
+    public void singleQuotesAreEscapedForTheShell() {
+        HelmCommand.Script script = HelmCommand.of("helm", "upgrade").add("it's").toScript(false);
+
+        assertEquals("'helm' 'upgrade' 'it'\\''s'", script.text());
+    }
+
+    @Test
+    public void blankOptionsAreLeftOut() {
+        HelmCommand command = HelmCommand.of("helm", "pull")
+                .option("--version", " ")
+                .option("--repo", null)
+                .set(new TreeMap<>())
+                .additionalArgs("  ");
+
+        assertArrayEquals(new String[] {"helm", "pull"}, command.toArgumentList().toCommandArray());
+    }
+}
@@ -0,0 +1,194 @@
+package com.nazman.helmtool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Runs {@link HelmDeployGate} against a stub {@code helm} script: {@code template} prints its arguments and a canned
+ * manifest, so different values render differently, and {@code status} prints a canned {@code --output json} reply.
+ * Every invocation is appended to {@code argv.log}.
+ */
+public class HelmDeployGateTest {
+
+    private static final String STUB = "#!/bin/sh\n"
+            + "dir=$(dirname \"$0\")\n"
+            + "echo \"$*\" >> \"$dir/argv.log\"\n"
+            + "case \"$1\" in\n"
+            + "  template) echo \"# $*\"; cat \"$dir/manifests.yaml\" ;;\n"
+            + "  status) cat \"$dir/status.json\" ;;\n"
+            + "  *) exit 2 ;;\n"
+            + "esac\n";
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File bin;
+    private HelmSession helm;
+    private HelmDeployGate gate;
+    private final HelmReleaseTarget target = HelmReleaseTarget.of("web", "--namespace apps");
+
+    @Before
+    public void setUp() throws Exception {
+        assumeFalse("The stub is a shell script", Functions.isWindows());
+        bin = tmp.newFolder("bin");
+        File stub = new File(bin, "helm");
+        write(stub, STUB);
+        assertTrue(stub.setExecutable(true));
+        write(new File(bin, "manifests.yaml"), "kind: ConfigMap\nmetadata:\n  name: web\n");
+        status("deployed", 3);
+
+        TaskListener listener = StreamTaskListener.fromStdout();
+        FilePath workspace = new FilePath(tmp.newFolder("ws"));
+        helm = HelmSession.resume(
+                null,
+                workspace,
+                new Launcher.LocalLauncher(listener),
+                listener,
+                r.jenkins,
+                new EnvVars(),
+                stub.getAbsolutePath());
+        gate = new HelmDeployGate(tmp.newFolder("releases"));
+    }
+
+    private HelmCommand upgrade(Map<String, String> values) {
+        return helm.upgradeCommand("web", "./chart", List.of("values.yaml"))
+                .set(values)
+                .additionalArgs("--namespace apps");
+    }
+
+    @Test
+    public void unchangedReleaseIsSkipped() throws Exception {
+        String deployed = gate.render(helm, upgrade(Map.of("image.tag", "1.0")));
+        gate.record(helm, target, deployed);
+
+        String again = gate.render(helm, upgrade(Map.of("image.tag", "1.0")));
+
+        assertTrue(gate.unchanged(helm, target, again));
+    }
+
+    @Test
+    public void changedValuesAreDeployed() throws Exception {
+        String deployed = gate.render(helm, upgrade(Map.of("image.tag", "1.0")));
+        gate.record(helm, target, deployed);
+
+        String changed = gate.render(helm, upgrade(Map.of("image.tag", "1.1")));
+
+        assertNotEquals(deployed, changed);
+        assertFalse(gate.unchanged(helm, target, changed));
+    }
+
+    @Test
+    public void newerRevisionIsDeployed() throws Exception {
+        String deployed = gate.render(helm, upgrade(Map.of()));
+        gate.record(helm, target, deployed);
+
+        status("deployed", 4);
+
+        assertFalse(gate.unchanged(helm, target, deployed));
+    }
+
+    @Test
+    public void failedOrPendingReleaseIsDeployed() throws Exception {
+        String deployed = gate.render(helm, upgrade(Map.of()));
+        gate.record(helm, target, deployed);
+
+        status("failed", 3);
+        assertFalse(gate.unchanged(helm, target, deployed));
+
+        status("pending-upgrade", 3);
+        assertFalse(gate.unchanged(helm, target, deployed));
+    }
+
+    @Test
+    public void releaseThatIsNotDeployedIsNotRecorded() throws Exception {
+        String rendered = gate.render(helm, upgrade(Map.of()));
+        status("pending-upgrade", 3);
+        gate.record(helm, target, rendered);
+
+        status("deployed", 3);
+
+        assertFalse(gate.unchanged(helm, target, rendered));
+    }
+
+    @Test
+    public void missingReleaseIsDeployed() throws Exception {
+        String deployed = gate.render(helm, upgrade(Map.of()));
+        gate.record(helm, target, deployed);
+
+        Files.delete(new File(bin, "status.json").toPath());
+
+        assertFalse(gate.unchanged(helm, target, deployed));
+    }
+
+    @Test
+    public void upgradeOnlyFlagsAreNotPassedToTemplate() throws Exception {
+        HelmCommand upgrade = helm.upgradeCommand("web", "./chart", List.of())
+                .additionalArgs("--force --history-max 5 --reuse-values --cleanup-on-fail=true --namespace apps");
+
+        assertNotNull(gate.render(helm, upgrade));
+
+        assertThat(invocations(), contains("template web ./chart --namespace apps"));
+    }
+
+    @Test
+    public void dryRunIsNotGated() throws Exception {
+        assertNull(gate.render(helm, upgrade(Map.of()).add("--dry-run=server")));
+        assertThat(invocations(), empty());
+    }
+
+    @Test
+    public void failedRenderIsNotGated() throws Exception {
+        Files.delete(new File(bin, "manifests.yaml").toPath());
+
+        assertNull(gate.render(helm, upgrade(Map.of())));
+    }
+
+    private void status(String status, int version) throws IOException {
+        write(
+                new File(bin, "status.json"),
+                "{\"name\":\"web\",\"info\":{\"status\":\"" + status + "\"},\"version\":" + version + "}\n");
+    }
+
+    private List<String> invocations() throws IOException {
+        File log = new File(bin, "argv.log");
+        if (!log.isFile()) {
+            return List.of();
+        }
+        return Files.readAllLines(log.toPath(), StandardCharsets.UTF_8).stream()
+                .filter(line -> !line.startsWith("status "))
+                .collect(Collectors.toList());
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,196 @@
+package com.nazman.helmtool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class HelmDeployQueueTest {
+
+    private static final String KEY = "web\napps\n\n";
+
+    private final HelmDeployQueue queue = new HelmDeployQueue();
+
+    private static HelmDeployQueue.Requester build(int number) {
+        return build("deploy", number, 1_000L * number);
+    }
+
+    private static HelmDeployQueue.Requester build(String job, int number, long scheduledMillis) {
+        return new HelmDeployQueue.Requester(job, number, scheduledMillis, job + " #" + number);
+    }
+
+    @Test
+    public void firstRequestRunsAtOnce() {
+        HelmDeployQueue.Ticket ticket = queue.request(KEY, build(1));
+
+        assertTrue(ticket.turn().isDone());
+        assertFalse(ticket.isSuperseded());
+        assertNull(ticket.blockedBy());
+    }
+
+    @Test
+    public void nextRequestWaitsUntilTheRunningOneCloses() {
+        HelmDeployQueue.Ticket running = queue.request(KEY, build(1));
+        HelmDeployQueue.Ticket next = queue.request(KEY, build(2));
+
+        assertFalse(next.turn().isDone());
+        assertEquals(build(1), next.blockedBy());
+
+        running.close();
+
+        assertTrue(next.turn().isDone());
+        assertFalse(next.isSuperseded());
+    }
+
+    @Test
+    public void otherReleasesDoNotWait() {
+        queue.request(KEY, build(1));
+
+        assertTrue(queue.request("api\napps\n\n", build(2)).turn().isDone());
+    }
+
+    @Test
+    public void newerRequestSupersedesTheWaitingOne() {
+        HelmDeployQueue.Ticket running = queue.request(KEY, build(1));
+        HelmDeployQueue.Ticket waiting = queue.request(KEY, build(2));
+        HelmDeployQueue.Ticket newest = queue.request(KEY, build(3));
+
+        assertTrue(waiting.turn().isDone());
+        assertTrue(waiting.isSuperseded());
+        assertEquals(build(3), waiting.supersededBy());
+        assertFalse(newest.turn().isDone());
+
+        running.close();
+
+        assertTrue(newest.turn().isDone());
+        assertFalse(newest.isSuperseded());
+    }
+
+    @Test
+    public void olderBuildArrivingLateNeverReplacesANewerWaiter() {
+        HelmDeployQueue.Ticket running = queue.request(KEY, build(40));
+        HelmDeployQueue.Ticket newer = queue.request(KEY, build(42));
+        HelmDeployQueue.Ticket late = queue.request(KEY, build(41));
+
+        assertTrue(late.isSuperseded());
+        assertEquals(build(42), late.supersededBy());
+        assertFalse(newer.isSuperseded());
+
+        running.close();
+
+        assertTrue(newer.turn().isDone());
+        assertFalse(newer.isSuperseded());
+    }
+
+    @Test
+    public void olderBuildThanTheRunningOneIsSuperseded() {
+        queue.request(KEY, build(42));
+
+        HelmDeployQueue.Ticket late = queue.request(KEY, build(41));
+
+        assertTrue(late.turn().isDone());
+        assertEquals(build(42), late.supersededBy());
+    }
+
+    @Test
+    public void olderBuildArrivingAfterTheNewerOneFinishedIsSuperseded() {
+        queue.request(KEY, build(42)).close();
+
+        HelmDeployQueue.Ticket late = queue.request(KEY, build(41));
+
+        assertTrue(late.turn().isDone());
+        assertTrue(late.isSuperseded());
+        assertEquals(build(42), late.supersededBy());
+        assertTrue(queue.request(KEY, build(43)).turn().isDone());
+    }
+
+    @Test
+    public void lastUpgradeIsRememberedOnlyForRecentReleases() {
+        queue.request(KEY, build(42)).close();
+        for (int i = 0; i < HelmDeployQueue.MAX_REMEMBERED; i++) {
+            queue.request("release-" + i, build(1)).close();
+        }
+
+        assertFalse(queue.request(KEY, build(41)).isSuperseded());
+    }
+
+    @Test
+    public void buildsOfDifferentJobsAreOrderedBySchedule() {
+        queue.request(KEY, build("deploy", 1, 100));
+        HelmDeployQueue.Ticket later = queue.request(KEY, build("hotfix", 1, 300));
+        HelmDeployQueue.Ticket earlier = queue.request(KEY, build("deploy", 2, 200));
+
+        assertTrue(earlier.isSuperseded());
+        assertFalse(later.isSuperseded());
+    }
+
+    @Test
+    public void closingAWaitingTicketGivesUpItsPlace() {
+        HelmDeployQueue.Ticket running = queue.request(KEY, build(1));
+        HelmDeployQueue.Ticket waiting = queue.request(KEY, build(2));
+
+        waiting.close();
+        running.close();
+
+        assertFalse(waiting.turn().isDone());
+        assertTrue(queue.request(KEY, build(3)).turn().isDone());
+    }
+
+    @Test
+    public void closingTwiceDoesNotReleaseTheNextTicket() {
+        HelmDeployQueue.Ticket first = queue.request(KEY, build(1));
+        first.close();
+        HelmDeployQueue.Ticket second = queue.request(KEY, build(2));
+
+        first.close();
+
+        assertFalse(queue.request(KEY, build(3)).turn().isDone());
+        second.close();
+    }
+
+    @Test
+    public void turnCallbackRunsWhenTheLaneFrees() throws Exception {
+        HelmDeployQueue.Ticket running = queue.request(KEY, build(1));
+        HelmDeployQueue.Ticket next = queue.request(KEY, build(2));
+        CountDownLatch called = new CountDownLatch(1);
+        AtomicReference<HelmDeployQueue.Ticket> seen = new AtomicReference<>();
+        next.turn().thenAccept(t -> {
+            seen.set(t);
+            called.countDown();
+        });
+
+        Thread closer = new Thread(running::close);
+        closer.start();
+
+        assertTrue(called.await(10, TimeUnit.SECONDS));
+        assertSame(next, seen.get());
+        closer.join();
+    }
+
+    @Test
+    public void interruptedWaiterLeavesTheQueue() throws Exception {
+        HelmDeployQueue.Ticket running = queue.request(KEY, build(1));
+        HelmDeployQueue.Ticket waiting = queue.request(KEY, build(2));
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                waiting.await();
+            } catch (Throwable t) {
+                thrown.set(t);
+            }
+        });
+        waiter.start();
+        waiter.interrupt();
+        waiter.join(10_000);
+
+        assertTrue(thrown.get() instanceof InterruptedException);
+        running.close();
+        assertFalse(waiting.turn().isDone());
+    }
+}
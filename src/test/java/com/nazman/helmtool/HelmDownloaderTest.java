@@ -0,0 +1,320 @@
+package com.nazman.helmtool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Exercises {@link HelmDownloader} and the checksum check of {@link HelmArchiveCache} against a local server. */
+public class HelmDownloaderTest {
+
+    private static final String KEY = "archive";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FakeServer server;
+    private File workDir;
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeServer();
+        workDir = tmp.newFolder("work");
+        target = new File(tmp.getRoot(), "archive.tar.gz");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private static HelmDownloader downloader(int parallelism, long minSegmentBytes, int maxAttempts) {
+        return new HelmDownloader(parallelism, minSegmentBytes, 5_000, 5_000, 0, maxAttempts);
+    }
+
+    @Test
+    public void serverIgnoringRangeGetsSingleStream() throws Exception {
+        server.content = randomBytes(300_000);
+        server.acceptsRanges = false;
+
+        String digest = downloader(4, 10_000, 1).download(server.url(), workDir, KEY, target);
+
+        assertArrayEquals(server.content, Files.readAllBytes(target.toPath()));
+        assertEquals(HelmDigests.sha256(target), digest);
+        assertEquals("probe and one full GET", 2, server.requests.get());
+        assertEquals(0, server.partialResponses.get());
+        assertNoParts();
+    }
+
+    @Test
+    public void partialResponsesAreReassembledInOrder() throws Exception {
+        server.content = randomBytes(1_000_003);
+
+        String digest = downloader(4, 100_000, 1).download(server.url(), workDir, KEY, target);
+
+        assertArrayEquals(server.content, Files.readAllBytes(target.toPath()));
+        assertEquals(HelmDigests.sha256(target), digest);
+        // The probe plus one request per segment
+        assertEquals(5, server.requests.get());
+        assertThat(server.ranges, hasItem("bytes=0-0"));
+        assertThat(server.ranges, hasItem("bytes=750000-1000002"));
+        assertNoParts();
+    }
+
+    @Test
+    public void droppedConnectionResumesFromPartFile() throws Exception {
+        server.content = randomBytes(200_000);
+        server.dropAfterBytes = 80_000;
+        server.drops.set(1);
+        HelmDownloader downloader = downloader(1, 1_000_000, 1);
+
+        assertThrows(IOException.class, () -> downloader.download(server.url(), workDir, KEY, target));
+        File part = new File(workDir, KEY + ".part0");
+        long have = part.length();
+        assertThat(have, greaterThan(0L));
+        assertThat(have, lessThan((long) server.content.length));
+
+        server.ranges.clear();
+        downloader.download(server.url(), workDir, KEY, target);
+
+        assertArrayEquals(server.content, Files.readAllBytes(target.toPath()));
+        assertThat(server.ranges, hasItem("bytes=" + have + "-" + (server.content.length - 1)));
+        assertNoParts();
+    }
+
+    @Test
+    public void changedSegmentPlanDiscardsPartialData() throws Exception {
+        server.content = randomBytes(200_000);
+        server.dropAfterBytes = 80_000;
+        server.drops.set(1);
+        assertThrows(IOException.class, () -> downloader(1, 1_000_000, 1).download(server.url(), workDir, KEY, target));
+        assertThat(new File(workDir, KEY + ".part0").length(), greaterThan(50_000L));
+
+        // part0 now covers bytes 0-49999 and must not be taken as complete from the longer leftover
+        server.ranges.clear();
+        downloader(4, 10_000, 1).download(server.url(), workDir, KEY, target);
+
+        assertArrayEquals(server.content, Files.readAllBytes(target.toPath()));
+        assertThat(server.ranges, hasItem("bytes=0-49999"));
+        assertNoParts();
+    }
+
+    @Test
+    public void retriesWithinOneDownloadResumeTheSegment() throws Exception {
+        server.content = randomBytes(200_000);
+        server.dropAfterBytes = 50_000;
+        server.drops.set(2);
+
+        downloader(1, 1_000_000, 3).download(server.url(), workDir, KEY, target);
+
+        assertArrayEquals(server.content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void changedETagDiscardsPartialData() throws Exception {
+        server.content = randomBytes(200_000);
+        server.etag = "\"v1\"";
+        server.dropAfterBytes = 80_000;
+        server.drops.set(1);
+        HelmDownloader downloader = downloader(1, 1_000_000, 1);
+        assertThrows(IOException.class, () -> downloader.download(server.url(), workDir, KEY, target));
+        assertTrue(new File(workDir, KEY + ".meta").isFile());
+
+        byte[] changed = randomBytes(200_000);
+        changed[0] ^= 1;
+        server.content = changed;
+        server.etag = "\"v2\"";
+        server.ranges.clear();
+        downloader.download(server.url(), workDir, KEY, target);
+
+        assertArrayEquals(server.content, Files.readAllBytes(target.toPath()));
+        assertThat(server.ranges, hasItem("bytes=0-" + (server.content.length - 1)));
+        assertNoParts();
+    }
+
+    @Test
+    public void blockedReadFailsAfterStallTimeout() throws Exception {
+        server.content = randomBytes(100_000);
+        server.dropAfterBytes = 10_000;
+        server.stallMillis = 10_000;
+        server.drops.set(Integer.MAX_VALUE);
+        HelmDownloader downloader = new HelmDownloader(1, 1_000_000, 5_000, 300, 0, 1);
+
+        long start = System.nanoTime();
+        assertThrows(IOException.class, () -> downloader.download(server.url(), workDir, KEY, target));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(5_000L));
+    }
+
+    @Test
+    public void slowTrickleFailsBelowThroughputFloor() throws Exception {
+        server.content = randomBytes(100_000);
+        server.trickleMillis = 20;
+        HelmDownloader downloader = new HelmDownloader(1, 1_000_000, 5_000, 300, 64 * 1024, 1);
+
+        long start = System.nanoTime();
+        IOException e =
+                assertThrows(IOException.class, () -> downloader.download(server.url(), workDir, KEY, target));
+        assertThat(e.getMessage(), containsString("stalled"));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(5_000L));
+    }
+
+    @Test
+    public void checksumMismatchIsRejectedAndNotCached() throws Exception {
+        server.content = randomBytes(50_000);
+        File root = tmp.newFolder("cache");
+        HelmArchiveCache cache = new HelmArchiveCache(root);
+        String wrong = "0".repeat(64);
+
+        IOException e = assertThrows(IOException.class, () -> cache.fetch(server.url(), wrong, TaskListener.NULL));
+        assertThat(e.getMessage(), containsString("Checksum mismatch"));
+        String[] blobs = new File(root, "blobs").list();
+        assertTrue(blobs == null || blobs.length == 0);
+
+        File blob = cache.fetch(server.url(), HelmDigests.sha256(bytesFile(server.content)), TaskListener.NULL);
+        assertArrayEquals(server.content, Files.readAllBytes(blob.toPath()));
+    }
+
+    private void assertNoParts() {
+        String[] left = workDir.list((dir, name) -> name.startsWith(KEY + ".part"));
+        assertEquals(0, left == null ? 0 : left.length);
+    }
+
+    private File bytesFile(byte[] content) throws IOException {
+        File file = tmp.newFile();
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Serves {@link #content} with optional range support and ETag. The next {@link #drops} body responses are cut
+     * off after {@link #dropAfterBytes}, after waiting {@link #stallMillis} if set; {@link #trickleMillis} sends the
+     * body one small chunk at a time.
+     */
+    private static final class FakeServer {
+        private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+        private final HttpServer http;
+        private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "FakeServer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        volatile byte[] content = new byte[0];
+        volatile boolean acceptsRanges = true;
+        volatile String etag;
+        volatile int dropAfterBytes;
+        volatile long stallMillis;
+        volatile long trickleMillis;
+        final AtomicInteger drops = new AtomicInteger();
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger partialResponses = new AtomicInteger();
+        final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+
+        FakeServer() throws IOException {
+            http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            http.createContext("/helm.tar.gz", this::handle);
+            http.setExecutor(executor);
+            http.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + http.getAddress().getPort() + "/helm.tar.gz";
+        }
+
+        void stop() {
+            http.stop(0);
+            executor.shutdownNow();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            byte[] body = content;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                ranges.add(range);
+            }
+            if (etag != null) {
+                exchange.getResponseHeaders().set("ETag", etag);
+            }
+            int start = 0;
+            int end = body.length - 1;
+            int status = 200;
+            Matcher m = range != null ? RANGE.matcher(range) : null;
+            if (acceptsRanges && m != null && m.matches()) {
+                start = Integer.parseInt(m.group(1));
+                end = m.group(2).isEmpty() ? body.length - 1 : Math.min(Integer.parseInt(m.group(2)), end);
+                status = 206;
+                partialResponses.incrementAndGet();
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+            }
+            int length = end - start + 1;
+            exchange.sendResponseHeaders(status, length);
+            boolean probe = "bytes=0-0".equals(range);
+            boolean drop = !probe && dropAfterBytes > 0 && drops.getAndDecrement() > 0;
+            OutputStream out = exchange.getResponseBody();
+            try {
+                if (drop) {
+                    out.write(body, start, Math.min(dropAfterBytes, length));
+                    out.flush();
+                    if (stallMillis > 0) {
+                        Thread.sleep(stallMillis);
+                    }
+                    // Closing short of the declared length closes the connection
+                    exchange.close();
+                    return;
+                }
+                if (trickleMillis > 0 && !probe) {
+                    for (int i = 0; i < length; i += 16) {
+                        out.write(body, start + i, Math.min(16, length - i));
+                        out.flush();
+                        Thread.sleep(trickleMillis);
+                    }
+                } else {
+                    out.write(body, start, length);
+                }
+                out.close();
+            } catch (InterruptedException | IOException e) {
+                // Client went away or the server is stopping
+                exchange.close();
+            }
+        }
+    }
+}
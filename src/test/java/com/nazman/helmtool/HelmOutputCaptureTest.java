@@ -0,0 +1,127 @@
+package com.nazman.helmtool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Test;
+
+public class HelmOutputCaptureTest {
+
+    private HelmOutputCapture capture;
+
+    @After
+    public void tearDown() throws IOException {
+        if (capture != null) {
+            capture.discard();
+        }
+    }
+
+    private static String lines(int from, int to) {
+        StringBuilder b = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            b.append("line ").append(i).append('\n');
+        }
+        return b.toString();
+    }
+
+    private String summary() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream console = new PrintStream(out, true, StandardCharsets.UTF_8);
+        capture.summarizeTo(console);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void shortOutputIsWrittenUnchanged() throws IOException {
+        capture = new HelmOutputCapture("upgrade-web");
+        String output = lines(0, 50);
+        capture.write(output.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(output, summary());
+        assertEquals(output.length(), capture.size());
+    }
+
+    @Test
+    public void longOutputKeepsHeadAndTailAtLineBoundaries() throws IOException {
+        capture = new HelmOutputCapture("upgrade-web");
+        String output = lines(0, 10_000);
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        // Uneven chunks, so lines and the ring buffer wrap across writes
+        for (int off = 0; off < bytes.length; off += 777) {
+            capture.write(bytes, off, Math.min(777, bytes.length - off));
+        }
+
+        String summary = summary();
+
+        assertThat(summary, startsWith(lines(0, HelmOutputCapture.HEAD_LINES)));
+        assertThat(summary, not(containsString("line " + HelmOutputCapture.HEAD_LINES + "\n")));
+        assertTrue(summary.endsWith("line 9999\n"));
+        int at = summary.indexOf("[... ");
+        int next = summary.indexOf('\n', at) + 1;
+        assertTrue("tail starts on a line", summary.startsWith("line ", next));
+        long omitted = Long.parseLong(summary.substring(at + 5, summary.indexOf(' ', at + 5)));
+        int shown = summary.length() - (next - at);
+        assertEquals(bytes.length, omitted + shown);
+        assertTrue(summary.length() - next <= HelmOutputCapture.TAIL_BYTES);
+    }
+
+    @Test
+    public void headStopsAtItsByteLimitWithoutNewlines() throws IOException {
+        capture = new HelmOutputCapture("upgrade-web");
+        byte[] blob = new byte[HelmOutputCapture.HEAD_BYTES * 4];
+        Arrays.fill(blob, (byte) 'x');
+        capture.write(blob);
+
+        String summary = summary();
+
+        assertThat(summary, startsWith("x".repeat(HelmOutputCapture.HEAD_BYTES)));
+        assertThat(summary, containsString("bytes of Helm output omitted"));
+    }
+
+    @Test
+    public void fullOutputIsSpooledCompressed() throws IOException {
+        capture = new HelmOutputCapture("upgrade web/prod");
+        byte[] bytes = lines(0, 5_000).getBytes(StandardCharsets.UTF_8);
+        capture.write(bytes);
+
+        File spool = capture.finish();
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(spool.toPath()))) {
+            assertArrayEquals(bytes, in.readAllBytes());
+        }
+        assertEquals("helm-output/upgrade_web_prod.log.gz", capture.artifactName());
+        capture.discard();
+        assertFalse(spool.exists());
+        capture = null;
+    }
+
+    @Test
+    public void fullOutputIsCopiedBack() throws IOException {
+        capture = new HelmOutputCapture("batch-web");
+        byte[] bytes = lines(0, 10_000).getBytes(StandardCharsets.UTF_8);
+        for (int off = 0; off < bytes.length; off += 777) {
+            capture.write(bytes, off, Math.min(777, bytes.length - off));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        capture.copyTo(out);
+
+        assertArrayEquals(bytes, out.toByteArray());
+    }
+}
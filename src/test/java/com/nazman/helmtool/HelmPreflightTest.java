@@ -0,0 +1,132 @@
+package com.nazman.helmtool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import hudson.AbortException;
+import hudson.FilePath;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HelmPreflightTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File root;
+    private FilePath workspace;
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmp.newFolder("ws");
+        workspace = new FilePath(root);
+        write("values.yaml", "replicas: 3\nimage:\n  tag: \"1.0\"\n");
+        write("charts/web/Chart.yaml", "apiVersion: v2\nname: web\nversion: 1.0.0\n");
+    }
+
+    @Test
+    public void validInputsPass() throws Exception {
+        new HelmPreflight()
+                .chart("./charts/web")
+                .valuesFiles(Arrays.asList("values.yaml", " ", null, "https://example.com/values.yaml"))
+                .repositories(List.of(new HelmTool.Repository("bitnami", "https://charts.bitnami.com/bitnami")))
+                .check(workspace);
+    }
+
+    @Test
+    public void repositoryChartsAndOciChartsAreNotLookedUp() throws Exception {
+        new HelmPreflight().chart("bitnami/nginx").check(workspace);
+        new HelmPreflight().chart("oci://ghcr.io/acme/charts/web").check(workspace);
+    }
+
+    @Test
+    public void everyProblemIsReportedTogether() throws Exception {
+        write("broken.yaml", "replicas: [1, 2\n");
+
+        AbortException e = assertThrows(AbortException.class, () -> new HelmPreflight()
+                .chart("./charts/missing")
+                .valuesFiles(List.of("values.yaml", "missing.yaml", "broken.yaml"))
+                .repositories(List.of(
+                        new HelmTool.Repository("stable", "charts.example.com"),
+                        new HelmTool.Repository(" ", "https://charts.example.com")))
+                .check(workspace));
+
+        String message = e.getMessage();
+        assertThat(message, containsString("Chart ./charts/missing not found"));
+        assertThat(message, containsString("Values file missing.yaml not found"));
+        assertThat(message, containsString("Values file broken.yaml is not valid YAML"));
+        assertThat(message, containsString("line 2"));
+        assertThat(message, containsString("Repository stable: URL charts.example.com has no scheme"));
+        assertThat(message, containsString("Repository with URL https://charts.example.com has no name"));
+        assertThat(message, not(containsString("values.yaml not found")));
+    }
+
+    @Test
+    public void chartDirectoryNeedsChartYaml() throws Exception {
+        Files.createDirectories(new File(root, "charts/empty").toPath());
+
+        AbortException e = assertThrows(
+                AbortException.class, () -> new HelmPreflight().chart("charts/empty").check(workspace));
+
+        assertThat(e.getMessage(), containsString("Chart directory charts/empty has no Chart.yaml"));
+    }
+
+    @Test
+    public void emptyChartPathIsRejected() {
+        AbortException e =
+                assertThrows(AbortException.class, () -> new HelmPreflight().chart(" ").check(workspace));
+
+        assertThat(e.getMessage(), containsString("Chart path is empty"));
+    }
+
+    @Test
+    public void repositoryNameWithTwoUrlsIsRejected() {
+        AbortException e = assertThrows(AbortException.class, () -> new HelmPreflight()
+                .repositories(List.of(
+                        new HelmTool.Repository("stable", "https://a.example.com"),
+                        new HelmTool.Repository("stable", "https://b.example.com")))
+                .check(workspace));
+
+        assertThat(e.getMessage(), containsString("Repository stable is configured with two URLs"));
+    }
+
+    @Test
+    public void nonUtf8ValuesFileIsRejected() throws Exception {
+        // "n: caf\u00e9" encoded as ISO-8859-1
+        byte[] latin1 = {'n', ':', ' ', 'c', 'a', 'f', (byte) 0xE9, '\n'};
+        Files.write(new File(root, "latin1.yaml").toPath(), latin1);
+
+        AbortException e = assertThrows(AbortException.class, () -> new HelmPreflight()
+                .valuesFiles(List.of("latin1.yaml"))
+                .check(workspace));
+
+        assertThat(e.getMessage(), containsString("not UTF-8 encoded"));
+    }
+
+    @Test
+    public void urlCheck() {
+        assertNull(HelmPreflight.checkUrl("https://charts.example.com/stable"));
+        assertNull(HelmPreflight.checkUrl("s3://bucket/charts"));
+        assertNull(HelmPreflight.checkUrl("gs://bucket/charts"));
+        assertThat(HelmPreflight.checkUrl(null), containsString("empty"));
+        assertThat(HelmPreflight.checkUrl("https:///charts"), containsString("has no host"));
+        assertThat(HelmPreflight.checkUrl("http://exa mple.com"), containsString("invalid URL"));
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(root, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,46 @@
+package com.nazman.helmtool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+import hudson.EnvVars;
+import java.io.File;
+import java.util.Locale;
+import java.util.Map;
+import org.junit.Test;
+
+/** Checks where {@link HelmRepositorySetup.HelmPaths} expects Helm's repository config and cache. */
+public class HelmRepositorySetupTest {
+
+    private static void assumeLinuxDefaults() {
+        assumeFalse(System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("mac"));
+        for (String key : HelmRepositorySetup.HelmPaths.VARIABLES) {
+            assumeTrue(key + " is set", key.equals("HOME") || System.getenv(key) == null);
+        }
+    }
+
+    @Test
+    public void homeOfTheBuildWins() {
+        assumeLinuxDefaults();
+        Map<String, String> env = HelmRepositorySetup.helmEnv(new EnvVars("HOME", "/home/build", "PATH", "/bin"));
+
+        HelmRepositorySetup.HelmPaths paths = new HelmRepositorySetup.HelmPaths(env);
+
+        assertEquals(Map.of("HOME", "/home/build"), env);
+        assertEquals(new File("/home/build/.config/helm/repositories.yaml"), paths.repositoryConfig);
+        assertEquals(new File("/home/build/.cache/helm/repository"), paths.repositoryCache);
+    }
+
+    @Test
+    public void helmVariablesWinOverHome() {
+        assumeLinuxDefaults();
+        Map<String, String> env = HelmRepositorySetup.helmEnv(
+                new EnvVars("HOME", "/home/build", "XDG_CACHE_HOME", "/cache", "HELM_CONFIG_HOME", "/etc/helm"));
+
+        HelmRepositorySetup.HelmPaths paths = new HelmRepositorySetup.HelmPaths(env);
+
+        assertEquals(new File("/etc/helm/repositories.yaml"), paths.repositoryConfig);
+        assertEquals(new File("/cache/helm/repository"), paths.repositoryCache);
+    }
+}
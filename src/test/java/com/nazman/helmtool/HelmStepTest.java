@@ -0,0 +1,183 @@
+package com.nazman.helmtool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import hudson.Functions;
+import hudson.model.Label;
+import hudson.model.Result;
+import hudson.slaves.DumbSlave;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.JenkinsSessionRule;
+
+/**
+ * Runs the {@code helmUpgrade} step against a stub {@code helm} script: {@code version} prints a version, and
+ * {@code upgrade} prints its arguments, waits while a {@code hold} file exists next to the stub and exits with the
+ * code in the {@code exit} file (0 if there is none).
+ */
+public class HelmStepTest {
+
+    private static final String STUB = "#!/bin/sh\n"
+            + "dir=$(dirname \"$0\")\n"
+            + "case \"$1\" in\n"
+            + "  version) echo 'version.BuildInfo{Version:\"v3.17.0\"}' ;;\n"
+            + "  upgrade)\n"
+            + "    echo \"upgrading: $*\"\n"
+            + "    while [ -e \"$dir/hold\" ]; do sleep 1; done\n"
+            + "    echo 'upgrade finished'\n"
+            + "    exit $(cat \"$dir/exit\" 2>/dev/null || echo 0) ;;\n"
+            + "  *) exit 2 ;;\n"
+            + "esac\n";
+
+    private static final String UPGRADE = "helmUpgrade(releaseName: 'web', chartPath: 'repo/web', "
+            + "helmInstallation: 'stub', valuesFile: '', additionalArgs: '--namespace apps')";
+
+    @Rule
+    public JenkinsSessionRule sessions = new JenkinsSessionRule();
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File bin;
+
+    @Before
+    public void setUp() throws IOException {
+        assumeFalse("The stub is a shell script", Functions.isWindows());
+        bin = tmp.newFolder("bin");
+        File stub = new File(bin, "helm");
+        write(stub, STUB);
+        assertTrue(stub.setExecutable(true));
+    }
+
+    private void configure(JenkinsRule r) throws IOException {
+        HelmToolInstallation.DescriptorImpl descriptor =
+                r.jenkins.getDescriptorByType(HelmToolInstallation.DescriptorImpl.class);
+        descriptor.setInstallations(new HelmToolInstallation("stub", bin.getAbsolutePath(), List.of()));
+        descriptor.save();
+    }
+
+    private static WorkflowJob job(JenkinsRule r, String script) throws IOException {
+        WorkflowJob job = r.createProject(WorkflowJob.class, "deploy");
+        job.setDefinition(new CpsFlowDefinition(script, true));
+        return job;
+    }
+
+    @Test
+    public void upgradeIsPolledUntilHelmExits() throws Throwable {
+        sessions.then(r -> {
+            configure(r);
+            hold(true);
+            WorkflowRun b = job(r, "node { " + UPGRADE + " }").scheduleBuild2(0).waitForStart();
+            r.waitForMessage("upgrading: upgrade --install web repo/web", b);
+            r.assertLogContains("--namespace apps", b);
+            assertTrue(b.isBuilding());
+
+            hold(false);
+
+            r.assertBuildStatusSuccess(r.waitForCompletion(b));
+            r.assertLogContains("upgrade finished", b);
+        });
+    }
+
+    @Test
+    public void failedUpgradeFailsTheBuild() throws Throwable {
+        sessions.then(r -> {
+            configure(r);
+            write(new File(bin, "exit"), "3\n");
+
+            WorkflowRun b = r.buildAndAssertStatus(Result.FAILURE, job(r, "node { " + UPGRADE + " }"));
+
+            r.assertLogContains("upgrade finished", b);
+            r.assertLogContains("Helm command failed with exit code 3", b);
+        });
+    }
+
+    @Test
+    public void abortStopsHelm() throws Throwable {
+        sessions.then(r -> {
+            configure(r);
+            hold(true);
+            WorkflowRun b = job(r, "node { " + UPGRADE + " }").scheduleBuild2(0).waitForStart();
+            r.waitForMessage("upgrading:", b);
+
+            b.doStop();
+
+            r.assertBuildStatus(Result.ABORTED, r.waitForCompletion(b));
+            r.assertLogNotContains("upgrade finished", b);
+        });
+    }
+
+    @Test
+    public void upgradeIsPickedUpAgainAfterARestart() throws Throwable {
+        sessions.then(r -> {
+            configure(r);
+            hold(true);
+            WorkflowRun b = job(r, "node { " + UPGRADE + " }").scheduleBuild2(0).waitForStart();
+            r.waitForMessage("upgrading:", b);
+        });
+        sessions.then(r -> {
+            WorkflowRun b = r.jenkins.getItemByFullName("deploy", WorkflowJob.class).getBuildByNumber(1);
+            assertTrue(b.isBuilding());
+
+            hold(false);
+
+            r.assertBuildStatusSuccess(r.waitForCompletion(b));
+            r.assertLogContains("upgrade finished", b);
+            assertThat(JenkinsRule.getLog(b), not(containsString("setting up again")));
+        });
+    }
+
+    @Test
+    public void offlineAgentFailsTheStepAfterTheTimeout() throws Throwable {
+        sessions.then(r -> {
+            configure(r);
+            DumbSlave agent = r.createOnlineSlave(Label.get("remote"));
+            hold(true);
+            long timeout = HelmStepExecution.AGENT_TIMEOUT_MILLIS;
+            HelmStepExecution.AGENT_TIMEOUT_MILLIS = 1;
+            try {
+                WorkflowRun b = job(r, "node('remote') { " + UPGRADE + " }")
+                        .scheduleBuild2(0)
+                        .waitForStart();
+                r.waitForMessage("upgrading:", b);
+
+                agent.toComputer().disconnect(null).get();
+
+                r.assertBuildStatus(Result.FAILURE, r.waitForCompletion(b));
+                r.assertLogContains("is offline; waiting for it to come back", b);
+                r.assertLogContains("was unreachable for", b);
+            } finally {
+                HelmStepExecution.AGENT_TIMEOUT_MILLIS = timeout;
+                hold(false);
+            }
+        });
+    }
+
+    private void hold(boolean on) throws IOException {
+        File hold = new File(bin, "hold");
+        if (on) {
+            write(hold, "");
+        } else {
+            Files.deleteIfExists(hold.toPath());
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,48 @@
+package com.nazman.helmtool;
+
+import java.util.List;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/** {@code HelmTool.DescriptorImpl.getInstallation} against a controller with hundreds of Helm installations. */
+@JmhBenchmark
+public class InstallationLookupBenchmark {
+
+    public static class JenkinsState extends JmhBenchmarkState {
+        @Param({"500"})
+        public int installations;
+
+        HelmTool.DescriptorImpl descriptor;
+        String lastName;
+
+        @Override
+        public void setup() throws Exception {
+            HelmToolInstallation[] all = new HelmToolInstallation[installations];
+            for (int i = 0; i < installations; i++) {
+                all[i] = new HelmToolInstallation("helm-" + i, "/opt/helm-" + i, List.of());
+            }
+            getJenkins()
+                    .getDescriptorByType(HelmToolInstallation.DescriptorImpl.class)
+                    .setInstallations(all);
+            descriptor = getJenkins().getDescriptorByType(HelmTool.DescriptorImpl.class);
+            lastName = "helm-" + (installations - 1);
+        }
+    }
+
+    @Benchmark
+    public HelmToolInstallation lookupLast(JenkinsState state) {
+        return state.descriptor.getInstallation(state.lastName);
+    }
+
+    @Benchmark
+    public HelmToolInstallation lookupMissing(JenkinsState state) {
+        return state.descriptor.getInstallation("helm-missing");
+    }
+
+    @Benchmark
+    public HelmToolInstallation lookupDefault(JenkinsState state) {
+        return state.descriptor.getDefaultInstallation();
+    }
+}
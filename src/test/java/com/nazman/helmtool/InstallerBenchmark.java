@@ -0,0 +1,96 @@
+package com.nazman.helmtool;
+
+import hudson.FilePath;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Installer hot paths on local fixtures: locating the binary in an extracted tree, and full extraction with
+ * {@link FilePath#untarFrom} against streaming only the binary with {@link StreamingHelmExtractor}. A
+ * {@code FilePath} without a channel stands in for the agent, so the callables run in-process.
+ */
+@JmhBenchmark
+public class InstallerBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+        @Param({"100", "1000"})
+        public int directories;
+
+        Path dir;
+        FilePath root;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("helm-bench-tree");
+            root = new FilePath(BenchmarkFixtures.extractedTree(dir, directories, 10).toFile());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            BenchmarkFixtures.deleteRecursively(dir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Archive {
+        @Param({"16777216"})
+        public int binaryBytes;
+
+        Path dir;
+        Path archive;
+        Path target;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("helm-bench-archive");
+            archive = BenchmarkFixtures.helmArchive(dir, binaryBytes);
+        }
+
+        @Setup(Level.Invocation)
+        public void newTarget() throws IOException {
+            target = Files.createTempDirectory(dir, "install");
+        }
+
+        @TearDown(Level.Invocation)
+        public void dropTarget() throws IOException {
+            BenchmarkFixtures.deleteRecursively(target);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            BenchmarkFixtures.deleteRecursively(dir);
+        }
+    }
+
+    @Benchmark
+    public FilePath findHelmBinary(Tree tree) throws Exception {
+        return HelmToolInstaller.findHelmBinary(tree.root);
+    }
+
+    @Benchmark
+    public FilePath extractWithUntarFrom(Archive a) throws Exception {
+        FilePath extractDir = new FilePath(a.target.resolve(".extract").toFile());
+        try (InputStream in = Files.newInputStream(a.archive)) {
+            extractDir.untarFrom(in, FilePath.TarCompression.GZIP);
+        }
+        return HelmToolInstaller.findHelmBinary(extractDir);
+    }
+
+    @Benchmark
+    public String extractStreaming(Archive a) throws Exception {
+        try (InputStream in = Files.newInputStream(a.archive)) {
+            return new FilePath(a.target.toFile()).act(new StreamingHelmExtractor(in));
+        }
+    }
+}